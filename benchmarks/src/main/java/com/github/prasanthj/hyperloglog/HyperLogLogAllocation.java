@@ -0,0 +1,277 @@
+/*
+ * Copyright 2014 Prasanth Jayachandran
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.hyperloglog;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.prasanthj.hll.HyperLogLog;
+
+/**
+ * Measures the steady state of the add, count and merge paths of a p = 14
+ * hyperloglog, which are expected not to allocate. Run through main() the GC
+ * profiler reports the bytes allocated per operation (gc.alloc.rate.norm) and
+ * the run fails if any benchmark exceeds its budget in
+ * allocation-budget.properties.
+ *
+ * SPARSE hyperloglogs are fed hashcodes they already contain, so the sparse
+ * list does not grow. The forked JVM uses UTF-8 as default charset, as
+ * addString() has to encode the string to a byte array for other default
+ * charsets. The byte keys are the UTF-8 encoded strings, which are shorter
+ * and longer than a Murmur3 block. The ByteBuffer keys are in a big endian
+ * direct buffer.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dfile.encoding=UTF-8")
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HyperLogLogAllocation {
+
+  private static final String BUDGET_FILE = "allocation-budget.properties";
+
+  private static final int P = 14;
+  private static final int NUM_VALUES = 1024;
+
+  private long[] hashcodes;
+  private String[] strings;
+  private byte[][] bytes;
+  private ByteBuffer buffer;
+  private int[] offsets;
+  private HyperLogLog dense;
+  private HyperLogLog sparse;
+  private HyperLogLog denseBias;
+  private HyperLogLog otherDense;
+  private HyperLogLog otherSparse;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(123);
+    hashcodes = new long[NUM_VALUES];
+    strings = new String[NUM_VALUES];
+    bytes = new byte[NUM_VALUES][];
+    offsets = new int[NUM_VALUES + 1];
+    for (int i = 0; i < NUM_VALUES; i++) {
+      hashcodes[i] = random.nextLong();
+      // keys of 2 to 16 bytes
+      strings[i] = i % 2 == 0 ? "u" + random.nextInt(100) : "user-" + random.nextInt();
+      bytes[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+      offsets[i + 1] = offsets[i] + bytes[i].length;
+    }
+    buffer = ByteBuffer.allocateDirect(offsets[NUM_VALUES]);
+    for (byte[] key : bytes) {
+      buffer.put(key);
+    }
+
+    dense = create(HyperLogLog.EncodingType.DENSE, random, 100000);
+    sparse = create(HyperLogLog.EncodingType.SPARSE, random, 0);
+    sparse.addHashes(hashcodes, 0, NUM_VALUES);
+    // raw estimate in the bias correction range
+    denseBias = create(HyperLogLog.EncodingType.DENSE, random, 20000);
+    otherDense = create(HyperLogLog.EncodingType.DENSE, random, 100000);
+    otherSparse = create(HyperLogLog.EncodingType.SPARSE, random, 1000);
+  }
+
+  private static HyperLogLog create(HyperLogLog.EncodingType encoding, Random random, int n) {
+    HyperLogLog hll = HyperLogLog.builder()
+      .setNumRegisterIndexBits(P)
+      .setEncoding(encoding)
+      .build();
+    for (int i = 0; i < n; i++) {
+      hll.addLong(random.nextLong());
+    }
+    return hll;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_VALUES)
+  public HyperLogLog testAdd() {
+    for (long hashcode : hashcodes) {
+      dense.add(hashcode);
+    }
+    return dense;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_VALUES)
+  public HyperLogLog testAddSparse() {
+    for (long hashcode : hashcodes) {
+      sparse.add(hashcode);
+    }
+    return sparse;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_VALUES)
+  public HyperLogLog testAddString() {
+    for (String string : strings) {
+      dense.addString(string);
+    }
+    return dense;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_VALUES)
+  public HyperLogLog testAddByte() {
+    for (int i = 0; i < NUM_VALUES; i++) {
+      dense.addByte((byte) i);
+    }
+    return dense;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_VALUES)
+  public HyperLogLog testAddBytes() {
+    for (byte[] key : bytes) {
+      dense.addBytes(key);
+    }
+    return dense;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_VALUES)
+  public HyperLogLog testAddByteBuffer() {
+    for (int i = 0; i < NUM_VALUES; i++) {
+      dense.addBytes(buffer, offsets[i], offsets[i + 1] - offsets[i]);
+    }
+    return dense;
+  }
+
+  @Benchmark
+  public long testCount() {
+    // setCount() invalidates the cached count so that it is recomputed
+    denseBias.setCount(0);
+    return denseBias.count();
+  }
+
+  @Benchmark
+  public long testCountSparse() {
+    sparse.setCount(0);
+    return sparse.count();
+  }
+
+  @Benchmark
+  public HyperLogLog testMerge() {
+    dense.merge(otherDense);
+    return dense;
+  }
+
+  @Benchmark
+  public HyperLogLog testMergeSparse() {
+    dense.merge(otherSparse);
+    return dense;
+  }
+
+  /**
+   * @param results
+   *          - results of a run with the GC profiler
+   * @param budgets
+   *          - allocation budget in bytes per operation keyed by benchmark
+   *            method name
+   * @return description of every benchmark that exceeds or has no budget
+   */
+  static List<String> checkBudgets(Collection<RunResult> results, Properties budgets) {
+    List<String> violations = new ArrayList<>();
+    for (RunResult result : results) {
+      String benchmark = result.getParams().getBenchmark();
+      String method = benchmark.substring(benchmark.lastIndexOf('.') + 1);
+      String budget = budgets.getProperty(method);
+      if (budget == null) {
+        violations.add(method + ": no allocation budget in " + BUDGET_FILE);
+        continue;
+      }
+      Result allocated = null;
+      for (Map.Entry<String, Result> entry : result.getSecondaryResults().entrySet()) {
+        if (entry.getKey().endsWith("gc.alloc.rate.norm")) {
+          allocated = entry.getValue();
+        }
+      }
+      if (allocated == null) {
+        violations.add(method + ": no gc.alloc.rate.norm, run with the GC profiler");
+      } else if (allocated.getScore() > Double.parseDouble(budget)) {
+        violations.add(method + ": allocated " + allocated.getScore() + " bytes/op, budget "
+          + budget + " bytes/op");
+      }
+    }
+    return violations;
+  }
+
+  private static Properties loadBudgets() throws IOException {
+    Properties budgets = new Properties();
+    try (InputStream in = HyperLogLogAllocation.class.getClassLoader()
+      .getResourceAsStream(BUDGET_FILE)) {
+      if (in == null) {
+        throw new IOException(BUDGET_FILE + " not found on the classpath");
+      }
+      budgets.load(in);
+    }
+    return budgets;
+  }
+
+  /*
+   * ============================== HOW TO RUN THIS TEST: ====================================
+   *
+   * You can run this test:
+   *
+   * a) Via the command line, failing when an allocation budget is exceeded:
+   *    $ mvn clean install
+   *    $ java -cp target/benchmarks.jar com.github.prasanthj.hyperloglog.HyperLogLogAllocation
+   *
+   * b) Via the command line, only reporting the allocations:
+   *    $ java -jar target/benchmarks.jar HyperLogLogAllocation -prof gc -f 1
+   */
+  public static void main(String[] args) throws RunnerException, IOException {
+    Properties budgets = loadBudgets();
+    Options opt = new OptionsBuilder()
+      .include(HyperLogLogAllocation.class.getSimpleName())
+      .addProfiler(GCProfiler.class)
+      .build();
+
+    List<String> violations = checkBudgets(new Runner(opt).run(), budgets);
+    if (!violations.isEmpty()) {
+      for (String violation : violations) {
+        System.err.println(violation);
+      }
+      System.exit(1);
+    }
+  }
+}
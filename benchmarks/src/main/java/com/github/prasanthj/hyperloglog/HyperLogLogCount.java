@@ -0,0 +1,142 @@
+/*
+ * Copyright 2014 Prasanth Jayachandran
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.hyperloglog;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.prasanthj.hll.HLLConstants;
+import com.github.prasanthj.hll.HLLDenseRegister;
+import com.github.prasanthj.hll.HyperLogLog;
+
+import it.unimi.dsi.fastutil.doubles.Double2IntAVLTreeMap;
+import it.unimi.dsi.fastutil.doubles.Double2IntSortedMap;
+
+/**
+ * Measures count() of a DENSE hyperloglog in the bias correction range
+ * (raw estimate <= 5m) where the k nearest neighbor lookup in the bias table
+ * dominates. testCountSortedMap repeats the steps of count() (raw estimate,
+ * bias correction and linear counting) with the bias lookup done through a
+ * distance keyed sorted map over the whole table, which is how it was
+ * implemented before, so both benchmarks time the same work.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HyperLogLogCount {
+
+  @Param({"14"})
+  private int p;
+
+  @Param({"1000", "20000", "60000"})
+  private int cardinality;
+
+  private HyperLogLog hll;
+  private int m;
+  private double alphaMM;
+  private long threshold;
+
+  @Setup
+  public void setup() {
+    hll = HyperLogLog.builder()
+      .setNumRegisterIndexBits(p)
+      .setEncoding(HyperLogLog.EncodingType.DENSE)
+      .build();
+    Random random = new Random(123);
+    for (int i = 0; i < cardinality; i++) {
+      hll.addLong(random.nextLong());
+    }
+    m = 1 << p;
+    alphaMM = (0.7213f / (1 + 1.079f / m)) * m * m;
+    threshold = (long) (HLLConstants.thresholdData[p - 4] + 0.5);
+  }
+
+  @Benchmark
+  public long testCount() {
+    // setCount() invalidates the cached count so that it is recomputed
+    hll.setCount(0);
+    return hll.count();
+  }
+
+  @Benchmark
+  public long testCountSortedMap() {
+    // same as count() of a DENSE hyperloglog with bias correction enabled
+    HLLDenseRegister register = hll.getHLLDenseRegister();
+    long count = (long) (alphaMM * (1.0 / register.getSumInversePow2()));
+    count = count <= 5 * m ? count - estimateBiasSortedMap(p, count) : count;
+    long numZeros = register.getNumZeroes();
+    long h = count;
+    if (numZeros != 0) {
+      h = Math.round(m * Math.log(m / ((double) numZeros)));
+    }
+    return h < threshold ? h : count;
+  }
+
+  private static long estimateBiasSortedMap(int p, long count) {
+    double[] rawEstForP = HLLConstants.rawEstimateData[p - 4];
+    Double2IntSortedMap estIndexMap = new Double2IntAVLTreeMap();
+    for (int i = 0; i < rawEstForP.length; i++) {
+      estIndexMap.put(Math.pow(count - rawEstForP[i], 2), i);
+    }
+
+    double[] biasForP = HLLConstants.biasData[p - 4];
+    double biasSum = 0;
+    int kNeighbors = HLLConstants.K_NEAREST_NEIGHBOR;
+    for (Map.Entry<Double, Integer> entry : estIndexMap.entrySet()) {
+      biasSum += biasForP[entry.getValue()];
+      kNeighbors--;
+      if (kNeighbors <= 0) {
+        break;
+      }
+    }
+    return (long) ((biasSum / HLLConstants.K_NEAREST_NEIGHBOR) + 0.5);
+  }
+
+  /*
+   * ============================== HOW TO RUN THIS TEST: ====================================
+   *
+   * You can run this test:
+   *
+   * a) Via the command line:
+   *    $ mvn clean install
+   *    $ java -jar target/benchmarks.jar HyperLogLogCount -f 1
+   *    $ java -jar target/benchmarks.jar HyperLogLogCount -prof gc -f 1
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(HyperLogLogCount.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014 Prasanth Jayachandran
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.hyperloglog;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.prasanthj.hll.HyperLogLog;
+
+/**
+ * Measures count() over the estimation ranges. SPARSE hyperloglogs use linear
+ * counting over p' bits until they switch to DENSE, which bitPacking moves
+ * (m * 0.15 entries with bit packing, m / 3 without). DENSE hyperloglogs use
+ * linear counting, bias correction up to 5m and the raw estimate beyond. For
+ * p = 14, 1000 stays SPARSE, 20000 and 60000 are in the bias correction range
+ * and 1000000 is past it. The encoding is the one the hyperloglog starts with.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HyperLogLogCountRange {
+
+  @Param({"10", "14", "16"})
+  private int p;
+
+  @Param({"SPARSE", "DENSE"})
+  private HyperLogLog.EncodingType encoding;
+
+  @Param({"true", "false"})
+  private boolean bitPacking;
+
+  @Param({"1000", "20000", "60000", "1000000"})
+  private int cardinality;
+
+  private HyperLogLog hll;
+
+  @Setup
+  public void setup() {
+    hll = HyperLogLog.builder()
+      .setNumRegisterIndexBits(p)
+      .setEncoding(encoding)
+      .enableBitPacking(bitPacking)
+      .build();
+    Random random = new Random(123);
+    for (int i = 0; i < cardinality; i++) {
+      hll.addLong(random.nextLong());
+    }
+  }
+
+  @Benchmark
+  public long testCount() {
+    // setCount() invalidates the cached count so that it is recomputed
+    hll.setCount(0);
+    return hll.count();
+  }
+
+  /*
+   * ============================== HOW TO RUN THIS TEST: ====================================
+   *
+   * You can run this test:
+   *
+   * a) Via the command line:
+   *    $ mvn clean install
+   *    $ java -jar target/benchmarks.jar HyperLogLogCountRange -f 1
+   *    $ java -jar target/benchmarks.jar HyperLogLogCountRange -p p=14 -p encoding=SPARSE -f 1
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(HyperLogLogCountRange.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+}
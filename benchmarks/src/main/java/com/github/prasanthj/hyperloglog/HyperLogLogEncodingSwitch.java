@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014 Prasanth Jayachandran
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.hyperloglog;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.prasanthj.hll.HyperLogLog;
+
+/**
+ * Measures filling a new SPARSE hyperloglog up to the encoding switch.
+ * testAddSwitch adds just enough hashcodes to switch to DENSE and
+ * testAddBelowSwitch one hashcode less, so the difference between the two is
+ * the cost of the sparse to dense conversion.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HyperLogLogEncodingSwitch {
+
+  @Param({"10", "14", "16"})
+  private int p;
+
+  @Param({"true", "false"})
+  private boolean bitPacking;
+
+  private long[] hashcodes;
+
+  @Setup
+  public void setup() {
+    // find the number of hashcodes after which the encoding switches
+    HyperLogLog hll = newHyperLogLog();
+    Random random = new Random(123);
+    long[] all = new long[1 << p];
+    int n = 0;
+    while (hll.getEncoding() == HyperLogLog.EncodingType.SPARSE) {
+      all[n] = random.nextLong();
+      hll.add(all[n++]);
+    }
+    hashcodes = Arrays.copyOf(all, n);
+  }
+
+  private HyperLogLog newHyperLogLog() {
+    return HyperLogLog.builder()
+      .setNumRegisterIndexBits(p)
+      .setEncoding(HyperLogLog.EncodingType.SPARSE)
+      .enableBitPacking(bitPacking)
+      .build();
+  }
+
+  @Benchmark
+  public HyperLogLog testAddSwitch() {
+    HyperLogLog hll = newHyperLogLog();
+    for (long hashcode : hashcodes) {
+      hll.add(hashcode);
+    }
+    return hll;
+  }
+
+  @Benchmark
+  public HyperLogLog testAddBelowSwitch() {
+    HyperLogLog hll = newHyperLogLog();
+    for (int i = 0; i < hashcodes.length - 1; i++) {
+      hll.add(hashcodes[i]);
+    }
+    return hll;
+  }
+
+  /*
+   * ============================== HOW TO RUN THIS TEST: ====================================
+   *
+   * You can run this test:
+   *
+   * a) Via the command line:
+   *    $ mvn clean install
+   *    $ java -jar target/benchmarks.jar HyperLogLogEncodingSwitch -f 1
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(HyperLogLogEncodingSwitch.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+}
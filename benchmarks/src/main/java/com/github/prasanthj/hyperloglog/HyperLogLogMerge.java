@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014 Prasanth Jayachandran
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.hyperloglog;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.prasanthj.hll.HyperLogLog;
+import com.github.prasanthj.hll.HyperLogLogUtils;
+
+/**
+ * Measures merge() for all four combinations of SPARSE and DENSE target and
+ * source. Merging changes the target (a SPARSE target may switch to DENSE),
+ * so the target is restored from its serialized form before every
+ * invocation. The cardinalities keep SPARSE hyperloglogs below the encoding
+ * switch threshold. testMergeSquash merges a source with larger p, which
+ * squashes the source first.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HyperLogLogMerge {
+
+  private static final int SPARSE_CARDINALITY = 1000;
+  private static final int DENSE_CARDINALITY = 100000;
+
+  @Param({"14"})
+  private int p;
+
+  @Param({"SPARSE", "DENSE"})
+  private HyperLogLog.EncodingType targetEncoding;
+
+  @Param({"SPARSE", "DENSE"})
+  private HyperLogLog.EncodingType sourceEncoding;
+
+  private ByteBuffer serializedTarget;
+  private HyperLogLog target;
+  private HyperLogLog source;
+  private HyperLogLog largerSource;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(123);
+    HyperLogLog hll = create(p, targetEncoding, random);
+    serializedTarget = ByteBuffer.allocate(HyperLogLogUtils.serializedSize(hll));
+    HyperLogLogUtils.serializeHLL(serializedTarget, hll);
+    serializedTarget.flip();
+    source = create(p, sourceEncoding, random);
+    largerSource = create(p + 2, sourceEncoding, random);
+  }
+
+  private static HyperLogLog create(int p, HyperLogLog.EncodingType encoding, Random random) {
+    HyperLogLog hll = HyperLogLog.builder()
+      .setNumRegisterIndexBits(p)
+      .setEncoding(encoding)
+      .build();
+    int n = encoding == HyperLogLog.EncodingType.SPARSE ? SPARSE_CARDINALITY : DENSE_CARDINALITY;
+    for (int i = 0; i < n; i++) {
+      hll.addLong(random.nextLong());
+    }
+    return hll;
+  }
+
+  @Setup(Level.Invocation)
+  public void resetTarget() {
+    target = HyperLogLogUtils.deserializeHLL(serializedTarget.duplicate());
+  }
+
+  @Benchmark
+  public HyperLogLog testMerge() {
+    target.merge(source);
+    return target;
+  }
+
+  @Benchmark
+  public HyperLogLog testMergeSquash() {
+    target.merge(largerSource);
+    return target;
+  }
+
+  /*
+   * ============================== HOW TO RUN THIS TEST: ====================================
+   *
+   * You can run this test:
+   *
+   * a) Via the command line:
+   *    $ mvn clean install
+   *    $ java -jar target/benchmarks.jar HyperLogLogMerge -f 1
+   *    $ java -jar target/benchmarks.jar HyperLogLogMerge -p targetEncoding=DENSE -f 1
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(HyperLogLogMerge.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014 Prasanth Jayachandran
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.hyperloglog;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.prasanthj.hll.HyperLogLog;
+import com.github.prasanthj.hll.HyperLogLogUtils;
+
+/**
+ * Measures serializeHLL() and deserializeHLL() to and from a reused
+ * ByteBuffer and through streams. 1000 keeps a p = 14 hyperloglog SPARSE
+ * (delta encoded varints), larger cardinalities are DENSE (bit packed when
+ * bitPacking is enabled).
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HyperLogLogSerialization {
+
+  @Param({"14"})
+  private int p;
+
+  @Param({"true", "false"})
+  private boolean bitPacking;
+
+  @Param({"1000", "100000"})
+  private int cardinality;
+
+  private HyperLogLog hll;
+  private ByteBuffer buffer;
+  private byte[] serialized;
+
+  @Setup
+  public void setup() {
+    hll = HyperLogLog.builder()
+      .setNumRegisterIndexBits(p)
+      .enableBitPacking(bitPacking)
+      .build();
+    Random random = new Random(123);
+    for (int i = 0; i < cardinality; i++) {
+      hll.addLong(random.nextLong());
+    }
+    hll.count();
+    buffer = ByteBuffer.allocate(HyperLogLogUtils.serializedSize(hll));
+    HyperLogLogUtils.serializeHLL(buffer, hll);
+    serialized = buffer.array();
+  }
+
+  @Benchmark
+  public ByteBuffer testSerialize() {
+    buffer.clear();
+    HyperLogLogUtils.serializeHLL(buffer, hll);
+    return buffer;
+  }
+
+  @Benchmark
+  public HyperLogLog testDeserialize() {
+    return HyperLogLogUtils.deserializeHLL(ByteBuffer.wrap(serialized));
+  }
+
+  @Benchmark
+  public ByteArrayOutputStream testSerializeStream() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(serialized.length);
+    HyperLogLogUtils.serializeHLL(out, hll);
+    return out;
+  }
+
+  @Benchmark
+  public HyperLogLog testDeserializeStream() throws IOException {
+    return HyperLogLogUtils.deserializeHLL(new ByteArrayInputStream(serialized));
+  }
+
+  /*
+   * ============================== HOW TO RUN THIS TEST: ====================================
+   *
+   * You can run this test:
+   *
+   * a) Via the command line:
+   *    $ mvn clean install
+   *    $ java -jar target/benchmarks.jar HyperLogLogSerialization -f 1
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(HyperLogLogSerialization.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2014 Prasanth Jayachandran
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.hyperloglog;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.prasanthj.hll.Murmur3;
+
+/**
+ * Measures Murmur3 hash64 and hash128 across key lengths. The Bytes variants
+ * are the same hashes with every block assembled from eight masked byte loads,
+ * which is how they were implemented before blocks were read as little endian
+ * longs.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class Murmur3Hash {
+
+  private static final int NUM_KEYS = 1024;
+
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+  private static final int R1 = 31;
+  private static final int R2 = 27;
+  private static final int R3 = 33;
+  private static final int M = 5;
+  private static final int N1 = 0x52dce729;
+  private static final int N2 = 0x38495ab5;
+
+  @Param({"4", "8", "16", "32", "64", "128", "256"})
+  private int length;
+
+  private byte[][] keys;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(123);
+    keys = new byte[NUM_KEYS][length];
+    for (byte[] key : keys) {
+      random.nextBytes(key);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_KEYS)
+  public void testHash64(Blackhole blackhole) {
+    for (byte[] key : keys) {
+      blackhole.consume(Murmur3.hash64(key));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_KEYS)
+  public void testHash64Bytes(Blackhole blackhole) {
+    for (byte[] key : keys) {
+      blackhole.consume(hash64Bytes(key, key.length, Murmur3.DEFAULT_SEED));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_KEYS)
+  public void testHash128(Blackhole blackhole) {
+    for (byte[] key : keys) {
+      blackhole.consume(Murmur3.hash128(key));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_KEYS)
+  public void testHash128Bytes(Blackhole blackhole) {
+    for (byte[] key : keys) {
+      blackhole.consume(hash128Bytes(key, key.length, Murmur3.DEFAULT_SEED));
+    }
+  }
+
+  private static long hash64Bytes(byte[] data, int length, int seed) {
+    long hash = seed;
+    final int nblocks = length >> 3;
+
+    // body
+    for (int i = 0; i < nblocks; i++) {
+      final int i8 = i << 3;
+      long k = ((long) data[i8] & 0xff)
+        | (((long) data[i8 + 1] & 0xff) << 8)
+        | (((long) data[i8 + 2] & 0xff) << 16)
+        | (((long) data[i8 + 3] & 0xff) << 24)
+        | (((long) data[i8 + 4] & 0xff) << 32)
+        | (((long) data[i8 + 5] & 0xff) << 40)
+        | (((long) data[i8 + 6] & 0xff) << 48)
+        | (((long) data[i8 + 7] & 0xff) << 56);
+
+      // mix functions
+      k *= C1;
+      k = Long.rotateLeft(k, R1);
+      k *= C2;
+      hash ^= k;
+      hash = Long.rotateLeft(hash, R2) * M + N1;
+    }
+
+    // tail
+    long k1 = 0;
+    int tailStart = nblocks << 3;
+    switch (length - tailStart) {
+      case 7:
+        k1 ^= ((long) data[tailStart + 6] & 0xff) << 48;
+      case 6:
+        k1 ^= ((long) data[tailStart + 5] & 0xff) << 40;
+      case 5:
+        k1 ^= ((long) data[tailStart + 4] & 0xff) << 32;
+      case 4:
+        k1 ^= ((long) data[tailStart + 3] & 0xff) << 24;
+      case 3:
+        k1 ^= ((long) data[tailStart + 2] & 0xff) << 16;
+      case 2:
+        k1 ^= ((long) data[tailStart + 1] & 0xff) << 8;
+      case 1:
+        k1 ^= ((long) data[tailStart] & 0xff);
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, R1);
+        k1 *= C2;
+        hash ^= k1;
+    }
+
+    // finalization
+    hash ^= length;
+    return fmix64(hash);
+  }
+
+  private static long[] hash128Bytes(byte[] data, int length, int seed) {
+    long h1 = seed;
+    long h2 = seed;
+    final int nblocks = length >> 4;
+
+    // body
+    for (int i = 0; i < nblocks; i++) {
+      final int i16 = i << 4;
+      long k1 = ((long) data[i16] & 0xff)
+        | (((long) data[i16 + 1] & 0xff) << 8)
+        | (((long) data[i16 + 2] & 0xff) << 16)
+        | (((long) data[i16 + 3] & 0xff) << 24)
+        | (((long) data[i16 + 4] & 0xff) << 32)
+        | (((long) data[i16 + 5] & 0xff) << 40)
+        | (((long) data[i16 + 6] & 0xff) << 48)
+        | (((long) data[i16 + 7] & 0xff) << 56);
+
+      long k2 = ((long) data[i16 + 8] & 0xff)
+        | (((long) data[i16 + 9] & 0xff) << 8)
+        | (((long) data[i16 + 10] & 0xff) << 16)
+        | (((long) data[i16 + 11] & 0xff) << 24)
+        | (((long) data[i16 + 12] & 0xff) << 32)
+        | (((long) data[i16 + 13] & 0xff) << 40)
+        | (((long) data[i16 + 14] & 0xff) << 48)
+        | (((long) data[i16 + 15] & 0xff) << 56);
+
+      // mix functions for k1
+      k1 *= C1;
+      k1 = Long.rotateLeft(k1, R1);
+      k1 *= C2;
+      h1 ^= k1;
+      h1 = Long.rotateLeft(h1, R2);
+      h1 += h2;
+      h1 = h1 * M + N1;
+
+      // mix functions for k2
+      k2 *= C2;
+      k2 = Long.rotateLeft(k2, R3);
+      k2 *= C1;
+      h2 ^= k2;
+      h2 = Long.rotateLeft(h2, R1);
+      h2 += h1;
+      h2 = h2 * M + N2;
+    }
+
+    // tail
+    long k1 = 0;
+    long k2 = 0;
+    int tailStart = nblocks << 4;
+    switch (length - tailStart) {
+      case 15:
+        k2 ^= (long) (data[tailStart + 14] & 0xff) << 48;
+      case 14:
+        k2 ^= (long) (data[tailStart + 13] & 0xff) << 40;
+      case 13:
+        k2 ^= (long) (data[tailStart + 12] & 0xff) << 32;
+      case 12:
+        k2 ^= (long) (data[tailStart + 11] & 0xff) << 24;
+      case 11:
+        k2 ^= (long) (data[tailStart + 10] & 0xff) << 16;
+      case 10:
+        k2 ^= (long) (data[tailStart + 9] & 0xff) << 8;
+      case 9:
+        k2 ^= (long) (data[tailStart + 8] & 0xff);
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, R3);
+        k2 *= C1;
+        h2 ^= k2;
+
+      case 8:
+        k1 ^= (long) (data[tailStart + 7] & 0xff) << 56;
+      case 7:
+        k1 ^= (long) (data[tailStart + 6] & 0xff) << 48;
+      case 6:
+        k1 ^= (long) (data[tailStart + 5] & 0xff) << 40;
+      case 5:
+        k1 ^= (long) (data[tailStart + 4] & 0xff) << 32;
+      case 4:
+        k1 ^= (long) (data[tailStart + 3] & 0xff) << 24;
+      case 3:
+        k1 ^= (long) (data[tailStart + 2] & 0xff) << 16;
+      case 2:
+        k1 ^= (long) (data[tailStart + 1] & 0xff) << 8;
+      case 1:
+        k1 ^= (long) (data[tailStart] & 0xff);
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, R1);
+        k1 *= C2;
+        h1 ^= k1;
+    }
+
+    // finalization
+    h1 ^= length;
+    h2 ^= length;
+
+    h1 += h2;
+    h2 += h1;
+
+    h1 = fmix64(h1);
+    h2 = fmix64(h2);
+
+    h1 += h2;
+    h2 += h1;
+
+    return new long[]{h1, h2};
+  }
+
+  private static long fmix64(long h) {
+    h ^= (h >>> 33);
+    h *= 0xff51afd7ed558ccdL;
+    h ^= (h >>> 33);
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= (h >>> 33);
+    return h;
+  }
+
+  /*
+   * ============================== HOW TO RUN THIS TEST: ====================================
+   *
+   * You can run this test:
+   *
+   * a) Via the command line:
+   *    $ mvn clean install
+   *    $ java -jar target/benchmarks.jar Murmur3Hash -f 1
+   *    $ java -jar target/benchmarks.jar Murmur3Hash -p length=32,64 -f 3
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(Murmur3Hash.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2014 Prasanth Jayachandran
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.hyperloglog;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.prasanthj.hll.HyperLogLog;
+import com.github.prasanthj.hll.WeightedHyperLogLog;
+
+/**
+ * Measures weighted add() per hashcode. Weight 1 takes the unweighted path of
+ * the register value computation, other weights the inverse transform. The
+ * DENSE variants add to a long lived p = 14 hyperloglog. The SPARSE variant
+ * adds to a new one that stays SPARSE. testAddDenseUnweighted is the same as
+ * testAddDense for the unweighted hyperloglog.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WeightedHyperLogLogAdd {
+
+  private static final int P = 14;
+
+  // stays below the encoding switch threshold for p = 14
+  private static final int NUM_HASHCODES = 1000;
+
+  @Param({"1", "2.5"})
+  private double weight;
+
+  private long[] hashcodes;
+  private WeightedHyperLogLog dense;
+  private HyperLogLog denseUnweighted;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(123);
+    hashcodes = new long[NUM_HASHCODES];
+    for (int i = 0; i < hashcodes.length; i++) {
+      hashcodes[i] = random.nextLong();
+    }
+    dense = WeightedHyperLogLog.builder()
+      .setNumRegisterIndexBits(P)
+      .setEncoding(WeightedHyperLogLog.EncodingType.DENSE)
+      .build();
+    denseUnweighted = HyperLogLog.builder()
+      .setNumRegisterIndexBits(P)
+      .setEncoding(HyperLogLog.EncodingType.DENSE)
+      .build();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_HASHCODES)
+  public WeightedHyperLogLog testAddDense() {
+    for (long hashcode : hashcodes) {
+      dense.add(hashcode, weight);
+    }
+    return dense;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_HASHCODES)
+  public WeightedHyperLogLog testAddSparse() {
+    WeightedHyperLogLog sparse = WeightedHyperLogLog.builder()
+      .setNumRegisterIndexBits(P)
+      .setEncoding(WeightedHyperLogLog.EncodingType.SPARSE)
+      .build();
+    for (long hashcode : hashcodes) {
+      sparse.add(hashcode, weight);
+    }
+    // merges the temp list
+    sparse.getHLLSparseRegister().getSparseListSize();
+    return sparse;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_HASHCODES)
+  public HyperLogLog testAddDenseUnweighted() {
+    for (long hashcode : hashcodes) {
+      denseUnweighted.add(hashcode);
+    }
+    return denseUnweighted;
+  }
+
+  /*
+   * ============================== HOW TO RUN THIS TEST: ====================================
+   *
+   * You can run this test:
+   *
+   * a) Via the command line:
+   *    $ mvn clean install
+   *    $ java -jar target/benchmarks.jar WeightedHyperLogLogAdd -f 1
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(WeightedHyperLogLogAdd.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+/**
+ * Bias estimation from HLL++ lookup tables (HLLConstants.rawEstimateData and
+ * HLLConstants.biasData) using k nearest neighbors of the raw estimate.
+ *
+ * The raw estimates of each precision are sorted once (a few entries in the
+ * published tables are out of order) so that the k nearest neighbors can be
+ * found using a binary search followed by a two-pointer walk, without any
+ * allocation per lookup.
+ */
+final class HLLBiasCorrection {
+
+  // raw estimates of each precision in ascending order
+  private static final double[][] SORTED_RAW_ESTIMATES;
+
+  // bias corresponding to each entry of SORTED_RAW_ESTIMATES
+  private static final double[][] SORTED_BIAS;
+
+  // index into the original table of each entry of SORTED_RAW_ESTIMATES
+  private static final int[][] SORTED_INDICES;
+
+  static {
+    int numTables = HLLConstants.rawEstimateData.length;
+    SORTED_RAW_ESTIMATES = new double[numTables][];
+    SORTED_BIAS = new double[numTables][];
+    SORTED_INDICES = new int[numTables][];
+    for (int t = 0; t < numTables; t++) {
+      double[] raw = HLLConstants.rawEstimateData[t];
+      double[] bias = HLLConstants.biasData[t];
+      int n = raw.length;
+      double[] sortedRaw = new double[n];
+      double[] sortedBias = new double[n];
+      int[] sortedIndices = new int[n];
+
+      // insertion sort as the tables are almost sorted. Equal estimates keep
+      // their original order.
+      for (int i = 0; i < n; i++) {
+        int j = i - 1;
+        while (j >= 0 && sortedRaw[j] > raw[i]) {
+          sortedRaw[j + 1] = sortedRaw[j];
+          sortedBias[j + 1] = sortedBias[j];
+          sortedIndices[j + 1] = sortedIndices[j];
+          j--;
+        }
+        sortedRaw[j + 1] = raw[i];
+        sortedBias[j + 1] = bias[i];
+        sortedIndices[j + 1] = i;
+      }
+      SORTED_RAW_ESTIMATES[t] = sortedRaw;
+      SORTED_BIAS[t] = sortedBias;
+      SORTED_INDICES[t] = sortedIndices;
+    }
+  }
+
+  private HLLBiasCorrection() {
+  }
+
+  /**
+   * Estimate bias from lookup table
+   * @param p
+   *          - number of register index bits
+   * @param count
+   *          - cardinality before bias correction
+   * @return bias to subtract from the cardinality
+   */
+  static long estimateBias(int p, long count) {
+    final double[] raw = SORTED_RAW_ESTIMATES[p - 4];
+    final double[] bias = SORTED_BIAS[p - 4];
+    final int[] indices = SORTED_INDICES[p - 4];
+    final int n = raw.length;
+
+    // hi is the first estimate >= count, lo is the one before it
+    int low = 0;
+    int high = n;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (raw[mid] < count) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    int lo = low - 1;
+    int hi = low;
+
+    // take top-k closest neighbors and compute the bias corrected cardinality.
+    // Neighbors at exactly the same distance are counted once using the one
+    // with the largest index in the original table. This matches the
+    // distance keyed sorted map that was used before.
+    double biasSum = 0;
+    int kNeighbors = HLLConstants.K_NEAREST_NEIGHBOR;
+    while (kNeighbors > 0 && (lo >= 0 || hi < n)) {
+      final double loDistance = lo >= 0 ? distance(count, raw[lo]) : Double.POSITIVE_INFINITY;
+      final double hiDistance = hi < n ? distance(count, raw[hi]) : Double.POSITIVE_INFINITY;
+      final double nearest = Math.min(loDistance, hiDistance);
+      int chosen = -1;
+      while (lo >= 0 && distance(count, raw[lo]) == nearest) {
+        if (chosen < 0 || indices[lo] > indices[chosen]) {
+          chosen = lo;
+        }
+        lo--;
+      }
+      while (hi < n && distance(count, raw[hi]) == nearest) {
+        if (chosen < 0 || indices[hi] > indices[chosen]) {
+          chosen = hi;
+        }
+        hi++;
+      }
+      biasSum += bias[chosen];
+      kNeighbors--;
+    }
+
+    // 0.5 added for rounding off
+    return (long) ((biasSum / HLLConstants.K_NEAREST_NEIGHBOR) + 0.5);
+  }
+
+  private static double distance(long count, double rawEstimate) {
+    return Math.pow(count - rawEstimate, 2);
+  }
+}
@@ -27,6 +27,12 @@ public class HLLConstants {
   // number of entries to store before being merged to sparse map
   public static final int TEMP_LIST_DEFAULT_SIZE = 1024;
 
+  // initial capacity of sparse list and temp list (both grow on demand)
+  public static final int SPARSE_LIST_INITIAL_SIZE = 16;
+
+  // number of hyperloglogs below which a parallel union is done sequentially
+  public static final int PARALLEL_UNION_THRESHOLD = 256;
+
   // constants for SPARSE encoding
   public static final int P_PRIME_VALUE = 25;
   public static final int Q_PRIME_VALUE = 6;
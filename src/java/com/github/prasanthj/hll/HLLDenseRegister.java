@@ -16,32 +16,60 @@
 
 package com.github.prasanthj.hll;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 
 public class HLLDenseRegister implements HLLRegister {
 
+  // MSB of every byte in a long
+  private static final long BYTE_HIGH_BITS = 0x8080808080808080L;
+
   // 2^p number of bytes for register
-  private byte[] register;
+  protected byte[] register;
 
   // max value stored in registered is cached to determine the bit width for
   // bit packing
-  private int maxRegisterValue;
+  protected int maxRegisterValue;
 
   // number of register bits
-  private int p;
+  protected int p;
 
   // m = 2^p
-  private int m;
+  protected int m;
+
+  // sum of inverse powers of 2 of the register values and the number of zero
+  // registers. Both are maintained on every register update so that count
+  // does not have to scan all registers
+  protected double sumInversePow2;
+  protected int numZeroes;
+
+  // number of incremental updates to sumInversePow2 since it was last computed
+  // exactly. Once this reaches m, the sum is recomputed to bound the floating
+  // point drift. The recompute is amortized O(1) per update.
+  protected int numIncrementalUpdates;
 
   public HLLDenseRegister(int p) {
     this(p, true);
   }
 
   public HLLDenseRegister(int p, boolean bitPack) {
+    this(p, bitPack, new byte[1 << p]);
+  }
+
+  /**
+   * For subclasses that store the registers in a different layout. register
+   * can be null in which case the subclass has to override every method that
+   * accesses it.
+   */
+  protected HLLDenseRegister(int p, boolean bitPack, byte[] register) {
     this.p = p;
     this.m = 1 << p;
-    this.register = new byte[m];
+    this.register = register;
     this.maxRegisterValue = 0;
+    this.sumInversePow2 = m;
+    this.numZeroes = m;
+    this.numIncrementalUpdates = 0;
     if (bitPack == false) {
       this.maxRegisterValue = 0xff;
     }
@@ -60,6 +88,18 @@ public class HLLDenseRegister implements HLLRegister {
     return set(registerIdx, (byte) lr);
   }
 
+  public boolean add(long[] hashcodes, int offset, int length) {
+    boolean updated = false;
+    final int end = offset + length;
+    for (int i = offset; i < end; i++) {
+      final long hashcode = hashcodes[i];
+      final int registerIdx = (int) (hashcode & (m - 1));
+      final int lr = Long.numberOfTrailingZeros(hashcode >>> p) + 1;
+      updated |= set(registerIdx, (byte) lr);
+    }
+    return updated;
+  }
+
   // this is a lossy invert of the function above, which produces a hashcode
   // which collides with the current winner of the register (we lose all higher 
   // bits, but we get all bits useful for lesser p-bit options)
@@ -94,8 +134,14 @@ public class HLLDenseRegister implements HLLRegister {
         maxRegisterValue = value;
       }
 
-      // set register value and compute inverse pow of 2 for register value
+      // set register value and update inverse pow of 2 sum for register value
+      final byte old = register[idx];
       register[idx] = value;
+      if (old == 0) {
+        numZeroes--;
+      }
+      sumInversePow2 += HLLConstants.inversePow2Data[value] - HLLConstants.inversePow2Data[old];
+      numIncrementalUpdates++;
 
       updated = true;
     }
@@ -103,36 +149,26 @@ public class HLLDenseRegister implements HLLRegister {
   }
 
   public int size() {
-    return register.length;
+    return m;
   }
 
   public int getNumZeroes() {
-    int numZeroes = 0;
-    for (byte b : register) {
-      if (b == 0) {
-        numZeroes++;
-      }
-    }
     return numZeroes;
   }
 
   public void merge(HLLRegister hllRegister) {
     if (hllRegister instanceof HLLDenseRegister) {
       HLLDenseRegister hdr = (HLLDenseRegister) hllRegister;
-      byte[] inRegister = hdr.getRegister();
 
       // merge only if the register length matches
-      if (register.length != inRegister.length) {
+      if (m != hdr.m) {
         throw new IllegalArgumentException(
             "The size of register sets of HyperLogLogs to be merged does not match.");
       }
 
       // compare register values and store the max register value
-      for (int i = 0; i < inRegister.length; i++) {
-        final byte cb = register[i];
-        final byte ob = inRegister[i];
-        register[i] = ob > cb ? ob : cb;
-      }
+      hdr.maxInto(register);
+      recomputeSumAndZeroes();
 
       // update max register value
       if (hdr.getMaxRegisterValue() > maxRegisterValue) {
@@ -143,12 +179,97 @@ public class HLLDenseRegister implements HLLRegister {
     }
   }
 
+  /**
+   * Sets the registers from sparse list entries (key &lt;&lt; qPrime | value),
+   * where the low p bits of the key are the register index. Registers keep
+   * the max value, so the entries do not have to be sorted or unique.
+   * @param sparseList
+   *          - sparse list entries
+   * @param size
+   *          - number of entries
+   */
+  void foldSparse(int[] sparseList, int size) {
+    final int mask = m - 1;
+    for (int i = 0; i < size; i++) {
+      final int idx = (sparseList[i] >>> HLLConstants.Q_PRIME_VALUE) & mask;
+      set(idx, (byte) (sparseList[i] & 0x3f));
+    }
+  }
+
+  /**
+   * Stores the max of dst[i] and register i in dst[i]. Subclasses that store
+   * the registers in a different layout override this to read them without
+   * unpacking them to a temporary array.
+   * @param dst
+   *          - unpacked registers, one byte per register
+   */
+  void maxInto(byte[] dst) {
+    maxRegisters(dst, register);
+  }
+
+  /**
+   * Stores the max of dst[i] and src[i] in dst[i]. 8 registers are compared at
+   * a time by treating a long as 8 byte lanes (SWAR). The remaining registers
+   * (if any) are compared one at a time.
+   */
+  static void maxRegisters(byte[] dst, byte[] src) {
+    final ByteBuffer dstBuffer = ByteBuffer.wrap(dst).order(ByteOrder.nativeOrder());
+    final ByteBuffer srcBuffer = ByteBuffer.wrap(src).order(ByteOrder.nativeOrder());
+    final int length = src.length;
+    int i = 0;
+    for (; i + Long.BYTES <= length; i += Long.BYTES) {
+      dstBuffer.putLong(i, maxBytes(dstBuffer.getLong(i), srcBuffer.getLong(i)));
+    }
+    for (; i < length; i++) {
+      final byte cb = dst[i];
+      final byte ob = src[i];
+      dst[i] = ob > cb ? ob : cb;
+    }
+  }
+
+  /**
+   * Per byte maximum (signed comparison) of two longs. Flipping the sign bit
+   * turns the signed comparison into an unsigned one, which is done as (MSB,
+   * remaining 7 bits). The 7 bit comparison is a subtraction that is kept from
+   * borrowing across bytes by setting the MSB of the minuend and clearing it in
+   * the subtrahend.
+   */
+  static long maxBytes(long x, long y) {
+    final long xu = x ^ BYTE_HIGH_BITS;
+    final long yu = y ^ BYTE_HIGH_BITS;
+    // MSB of each byte is set if low 7 bits of xu >= low 7 bits of yu
+    final long lowGe = ((xu | BYTE_HIGH_BITS) - (yu & ~BYTE_HIGH_BITS)) & BYTE_HIGH_BITS;
+    // MSB of each byte is set if x >= y
+    final long ge = ((xu & ~yu) | (~(xu ^ yu) & lowGe)) & BYTE_HIGH_BITS;
+    // expand to a mask over all bits of the selected bytes
+    final long mask = (ge - (ge >>> 7)) | ge;
+    return (x & mask) | (y & ~mask);
+  }
+
+  /**
+   * @param idx
+   *          - register index
+   * @return register value
+   */
+  public byte get(int idx) {
+    return register[idx];
+  }
+
+  /**
+   * @return the registers, one byte per register. This is the array backing
+   *         the registers, except for subclasses that store the registers in
+   *         a different layout (HLLPackedDenseRegister) which return an
+   *         unpacked copy that does not reflect later updates and whose
+   *         updates do not change the registers. Use set() to update
+   *         registers.
+   */
   public byte[] getRegister() {
     return register;
   }
 
   public void setRegister(byte[] register) {
     this.register = register;
+    recomputeSumAndZeroes();
   }
 
   public int getMaxRegisterValue() {
@@ -156,11 +277,36 @@ public class HLLDenseRegister implements HLLRegister {
   }
 
   public double getSumInversePow2() {
+    if (numIncrementalUpdates >= m) {
+      recomputeSumAndZeroes();
+    }
+    return sumInversePow2;
+  }
+
+  /**
+   * Computes the exact sum of inverse powers of 2 and the number of zero
+   * registers by scanning all registers. Max register value is updated as
+   * well, for when registers are replaced in bulk.
+   */
+  protected void recomputeSumAndZeroes() {
     double sum = 0;
+    int zeroes = 0;
+    int max = 0;
     for (byte b : register) {
       sum += HLLConstants.inversePow2Data[b];
+      if (b == 0) {
+        zeroes++;
+      }
+      if (b > max) {
+        max = b;
+      }
+    }
+    sumInversePow2 = sum;
+    numZeroes = zeroes;
+    numIncrementalUpdates = 0;
+    if (max > maxRegisterValue) {
+      maxRegisterValue = max;
     }
-    return sum;
   }
 
   @Override
@@ -177,7 +323,7 @@ public class HLLDenseRegister implements HLLRegister {
   }
 
   public String toExtendedString() {
-    return toString() + " register: " + Arrays.toString(register);
+    return toString() + " register: " + Arrays.toString(getRegister());
   }
 
   @Override
@@ -187,7 +333,34 @@ public class HLLDenseRegister implements HLLRegister {
     }
     HLLDenseRegister other = (HLLDenseRegister) obj;
     return getNumZeroes() == other.getNumZeroes() && maxRegisterValue == other.maxRegisterValue
-        && Arrays.equals(register, other.register);
+        && registersEqual(other);
+  }
+
+  /**
+   * Compares the registers with those of another dense register of any
+   * layout without unpacking them.
+   */
+  protected boolean registersEqual(HLLDenseRegister other) {
+    if (register != null && other.register != null) {
+      return Arrays.equals(register, other.register);
+    }
+    if (m != other.m) {
+      return false;
+    }
+    for (int i = 0; i < m; i++) {
+      if (get(i) != other.get(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return same as Arrays.hashCode() of the unpacked registers, so that equal
+   *         registers of different layouts have the same hashcode
+   */
+  protected int registersHashCode() {
+    return Arrays.hashCode(register);
   }
 
   @Override
@@ -195,7 +368,7 @@ public class HLLDenseRegister implements HLLRegister {
     int hashcode = 0;
     hashcode += 31 * getNumZeroes();
     hashcode += 31 * maxRegisterValue;
-    hashcode += Arrays.hashCode(register);
+    hashcode += registersHashCode();
     return hashcode;
   }
 
@@ -0,0 +1,277 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+import java.util.Arrays;
+
+/**
+ * <pre>
+ * DENSE register that keeps the registers bit packed in memory. The longest
+ * run of trailing zeroes for a 64 bit hashcode is at most 65 - p which fits in
+ * 6 bits, so every register takes 6 bits instead of a byte.
+ *
+ * 10 registers are packed into every long, leaving the 4 MSBs of each word
+ * unused. Registers never straddle two words, which keeps get/set to a single
+ * word access and allows merging 10 registers at a time (SWAR).
+ *
+ * |-4-|---6---|---6---| ... |---6---|
+ * |   | r[9]  | r[8]  | ... | r[0]  |
+ * </pre>
+ */
+public class HLLPackedDenseRegister extends HLLDenseRegister {
+
+  static final int BITS_PER_REGISTER = 6;
+  static final int REGISTERS_PER_WORD = Long.SIZE / BITS_PER_REGISTER;
+  static final int MAX_REGISTER_VALUE = (1 << BITS_PER_REGISTER) - 1;
+  private static final long REGISTER_MASK = MAX_REGISTER_VALUE;
+
+  // MSB of every register in a word
+  private static final long HIGH_BITS;
+
+  static {
+    long high = 0;
+    for (int i = 0; i < REGISTERS_PER_WORD; i++) {
+      high |= 1L << (i * BITS_PER_REGISTER + BITS_PER_REGISTER - 1);
+    }
+    HIGH_BITS = high;
+  }
+
+  private long[] words;
+
+  public HLLPackedDenseRegister(int p) {
+    this(p, true);
+  }
+
+  public HLLPackedDenseRegister(int p, boolean bitPack) {
+    super(p, bitPack, null);
+    this.words = new long[(m + REGISTERS_PER_WORD - 1) / REGISTERS_PER_WORD];
+  }
+
+  /**
+   * @param idx
+   *          - register index
+   * @return register value
+   */
+  @Override
+  public byte get(int idx) {
+    final long word = words[idx / REGISTERS_PER_WORD];
+    return (byte) ((word >>> ((idx % REGISTERS_PER_WORD) * BITS_PER_REGISTER)) & REGISTER_MASK);
+  }
+
+  @Override
+  public boolean set(int idx, byte value) {
+    if (idx >= m) {
+      return false;
+    }
+    if (value > MAX_REGISTER_VALUE) {
+      throw new IllegalArgumentException("Register value " + value
+        + " does not fit in " + BITS_PER_REGISTER + " bits");
+    }
+
+    final int wordIdx = idx / REGISTERS_PER_WORD;
+    final int shift = (idx % REGISTERS_PER_WORD) * BITS_PER_REGISTER;
+    final long word = words[wordIdx];
+    final int old = (int) ((word >>> shift) & REGISTER_MASK);
+    if (value <= old) {
+      return false;
+    }
+
+    // update max register value
+    if (value > maxRegisterValue) {
+      maxRegisterValue = value;
+    }
+
+    words[wordIdx] = (word & ~(REGISTER_MASK << shift)) | ((long) value << shift);
+    if (old == 0) {
+      numZeroes--;
+    }
+    sumInversePow2 += HLLConstants.inversePow2Data[value] - HLLConstants.inversePow2Data[old];
+    numIncrementalUpdates++;
+    return true;
+  }
+
+  @Override
+  public void extractLowBitsTo(HLLRegister dest) {
+    for (int idx = 0; idx < m; idx++) {
+      byte lr = get(idx);
+      if (lr != 0) {
+        dest.add((long) ((1 << (p + lr - 1)) | idx));
+      }
+    }
+  }
+
+  @Override
+  public void merge(HLLRegister hllRegister) {
+    if (hllRegister instanceof HLLPackedDenseRegister) {
+      HLLPackedDenseRegister hpdr = (HLLPackedDenseRegister) hllRegister;
+      if (m != hpdr.m) {
+        throw new IllegalArgumentException(
+            "The size of register sets of HyperLogLogs to be merged does not match.");
+      }
+
+      final long[] inWords = hpdr.words;
+      for (int i = 0; i < words.length; i++) {
+        words[i] = max(words[i], inWords[i]);
+      }
+
+      // update max register value
+      if (hpdr.getMaxRegisterValue() > maxRegisterValue) {
+        maxRegisterValue = hpdr.getMaxRegisterValue();
+      }
+      recomputeSumAndZeroes();
+    } else if (hllRegister instanceof HLLDenseRegister) {
+      HLLDenseRegister hdr = (HLLDenseRegister) hllRegister;
+      byte[] inRegister = hdr.getRegister();
+      if (m != inRegister.length) {
+        throw new IllegalArgumentException(
+            "The size of register sets of HyperLogLogs to be merged does not match.");
+      }
+
+      for (int i = 0; i < inRegister.length; i++) {
+        set(i, inRegister[i]);
+      }
+      if (hdr.getMaxRegisterValue() > maxRegisterValue) {
+        maxRegisterValue = hdr.getMaxRegisterValue();
+      }
+    } else {
+      throw new IllegalArgumentException("Specified register is not instance of HLLDenseRegister");
+    }
+  }
+
+  /**
+   * Per register maximum of two words of packed registers. Each register is
+   * compared as (MSB, remaining 5 bits). The 5 bit comparison is done with a
+   * subtraction that is kept from borrowing across registers by setting the
+   * MSB of the minuend and clearing it in the subtrahend.
+   */
+  static long max(long x, long y) {
+    // MSB of each register is set if low 5 bits of x >= low 5 bits of y
+    final long lowGe = ((x | HIGH_BITS) - (y & ~HIGH_BITS)) & HIGH_BITS;
+    // MSB of each register is set if x >= y
+    final long ge = ((x & ~y) | (~(x ^ y) & lowGe)) & HIGH_BITS;
+    // expand to a mask over all bits of the selected registers
+    final long lsb = ge >>> (BITS_PER_REGISTER - 1);
+    final long mask = (lsb << BITS_PER_REGISTER) - lsb;
+    return (x & mask) | (y & ~mask);
+  }
+
+  @Override
+  void maxInto(byte[] dst) {
+    int idx = 0;
+    for (long word : words) {
+      for (int i = 0; i < REGISTERS_PER_WORD && idx < m; i++, idx++) {
+        final byte value = (byte) (word & REGISTER_MASK);
+        if (value > dst[idx]) {
+          dst[idx] = value;
+        }
+        word >>>= BITS_PER_REGISTER;
+      }
+    }
+  }
+
+  /**
+   * Unpacks the registers to a byte array. Merge, equals, hashCode and union
+   * read the packed registers directly, this is for callers that need a byte
+   * per register such as serialization.
+   * @return a copy of the registers, one byte per register
+   */
+  @Override
+  public byte[] getRegister() {
+    byte[] result = new byte[m];
+    int idx = 0;
+    for (long word : words) {
+      for (int i = 0; i < REGISTERS_PER_WORD && idx < m; i++) {
+        result[idx++] = (byte) (word & REGISTER_MASK);
+        word >>>= BITS_PER_REGISTER;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public void setRegister(byte[] register) {
+    if (register.length != m) {
+      throw new IllegalArgumentException("Expected " + m + " registers. Provided: "
+        + register.length);
+    }
+    int idx = 0;
+    for (int w = 0; w < words.length; w++) {
+      long word = 0;
+      for (int i = 0; i < REGISTERS_PER_WORD && idx < m; i++) {
+        final byte value = register[idx++];
+        if (value > MAX_REGISTER_VALUE) {
+          throw new IllegalArgumentException("Register value " + value
+            + " does not fit in " + BITS_PER_REGISTER + " bits");
+        }
+        if (value > maxRegisterValue) {
+          maxRegisterValue = value;
+        }
+        word |= (long) value << (i * BITS_PER_REGISTER);
+      }
+      words[w] = word;
+    }
+    recomputeSumAndZeroes();
+  }
+
+  @Override
+  protected boolean registersEqual(HLLDenseRegister other) {
+    if (other instanceof HLLPackedDenseRegister) {
+      return Arrays.equals(words, ((HLLPackedDenseRegister) other).words);
+    }
+    return super.registersEqual(other);
+  }
+
+  @Override
+  protected int registersHashCode() {
+    int hashcode = 1;
+    int idx = 0;
+    for (long word : words) {
+      for (int i = 0; i < REGISTERS_PER_WORD && idx < m; i++, idx++) {
+        hashcode = 31 * hashcode + (int) (word & REGISTER_MASK);
+        word >>>= BITS_PER_REGISTER;
+      }
+    }
+    return hashcode;
+  }
+
+  /**
+   * @return packed registers, REGISTERS_PER_WORD registers per long
+   */
+  public long[] getWords() {
+    return words;
+  }
+
+  @Override
+  protected void recomputeSumAndZeroes() {
+    double sum = 0;
+    int zeroes = 0;
+    int idx = 0;
+    for (long word : words) {
+      for (int i = 0; i < REGISTERS_PER_WORD && idx < m; i++, idx++) {
+        final int value = (int) (word & REGISTER_MASK);
+        sum += HLLConstants.inversePow2Data[value];
+        if (value == 0) {
+          zeroes++;
+        }
+        word >>>= BITS_PER_REGISTER;
+      }
+    }
+    sumInversePow2 = sum;
+    numZeroes = zeroes;
+    numIncrementalUpdates = 0;
+  }
+}
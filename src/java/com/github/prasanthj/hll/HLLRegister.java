@@ -26,6 +26,26 @@ public interface HLLRegister {
    */
   public boolean add(long hashcode);
 
+  /**
+   * Specify hashcodes to add to hyperloglog register. The default
+   * implementation calls add() for each hashcode, registers override it to
+   * add a whole array at once.
+   * @param hashcodes
+   *          - array of hashcodes
+   * @param offset
+   *          - index of the first hashcode to add
+   * @param length
+   *          - number of hashcodes to add
+   * @return true if any register value is updated else false
+   */
+  public default boolean add(long[] hashcodes, int offset, int length) {
+    boolean updated = false;
+    for (int i = offset; i < offset + length; i++) {
+      updated |= add(hashcodes[i]);
+    }
+    return updated;
+  }
+
   /**
    * Instead of specifying hashcode, this interface can be used to directly
    * specify the register index and register value. This interface is useful
@@ -13,8 +13,7 @@
 
 package com.github.prasanthj.hll;
 
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Arrays;
 
 import it.unimi.dsi.fastutil.ints.Int2ByteAVLTreeMap;
 import it.unimi.dsi.fastutil.ints.Int2ByteSortedMap;
@@ -22,13 +21,16 @@ import it.unimi.dsi.fastutil.ints.Int2ByteSortedMap;
 public class HLLSparseRegister implements HLLRegister {
 
   // maintains sorted list of register indices and its corresponding values.
-  // Its easier to use primitive sorted map as opposed to int[] used in this
-  // paper
+  // Each entry packs the register index (pPrime bits) and the register value
+  // (qPrime bits) into a single int (key << qPrime | value) as described in
   // http://static.googleusercontent.com/media/research.google.com/en//pubs/archive/40671.pdf
-  private Int2ByteSortedMap sparseMap;
+  // Since the value occupies the low bits, sorting the packed entries sorts
+  // them by register index. Only the first sparseListSize entries are valid.
+  private int[] sparseList;
+  private int sparseListSize;
 
-  // for a better insertion performance values are added to temporary unsorted
-  // list which will be merged to sparse map after a threshold
+  // for a better insertion performance entries are added to temporary unsorted
+  // list which will be sorted and merged to sparse list after a threshold
   private int[] tempList;
   private int tempListIdx;
 
@@ -48,8 +50,9 @@ public class HLLSparseRegister implements HLLRegister {
 
   public HLLSparseRegister(int p, int pp, int qp) {
     this.p = p;
-    this.sparseMap = new Int2ByteAVLTreeMap();
-    this.tempList = new int[HLLConstants.TEMP_LIST_DEFAULT_SIZE];
+    this.sparseList = new int[HLLConstants.SPARSE_LIST_INITIAL_SIZE];
+    this.sparseListSize = 0;
+    this.tempList = new int[HLLConstants.SPARSE_LIST_INITIAL_SIZE];
     this.tempListIdx = 0;
     this.pPrime = pp;
     this.qPrime = qp;
@@ -59,49 +62,139 @@ public class HLLSparseRegister implements HLLRegister {
   }
 
   public boolean add(long hashcode) {
-    boolean updated;
+    return addEntry(getSparseEntry(hashcode));
+  }
 
-    // fill the temp list before merging to sparse map
-    if (tempListIdx < tempList.length) {
-      int encodedHash = encodeHash(hashcode);
-      tempList[tempListIdx++] = encodedHash;
-      updated = true;
-    } else {
-      updated = mergeTempListToSparseMap();
+  /**
+   * Adds a packed entry (key &lt;&lt; qPrime | value) to the temp list.
+   * @param entry
+   *          - packed sparse list entry
+   * @return true
+   */
+  boolean addEntry(int entry) {
+
+    // fill the temp list before merging to sparse list. The temp list starts
+    // small and grows up to its default size so that small sketches stay small
+    if (tempListIdx == tempList.length) {
+      if (tempList.length < HLLConstants.TEMP_LIST_DEFAULT_SIZE) {
+        tempList = Arrays.copyOf(tempList,
+          Math.min(tempList.length * 2, HLLConstants.TEMP_LIST_DEFAULT_SIZE));
+      } else {
+        mergeTempListToSparseList();
+      }
     }
+    tempList[tempListIdx++] = entry;
+    return true;
+  }
 
-    return updated;
+  public boolean add(long[] hashcodes, int offset, int length) {
+    final int end = offset + length;
+    int i = offset;
+    while (i < end) {
+      if (tempListIdx == tempList.length) {
+        if (tempList.length < HLLConstants.TEMP_LIST_DEFAULT_SIZE) {
+          tempList = Arrays.copyOf(tempList, Math.min(Math.max(tempList.length * 2,
+            tempListIdx + end - i), HLLConstants.TEMP_LIST_DEFAULT_SIZE));
+        } else {
+          mergeTempListToSparseList();
+        }
+      }
+
+      // encode as many hashcodes as the temp list can hold before merging
+      final int n = Math.min(end - i, tempList.length - tempListIdx);
+      for (int j = 0; j < n; j++) {
+        tempList[tempListIdx + j] = decodeHash(encodeHash(hashcodes[i + j]));
+      }
+      tempListIdx += n;
+      i += n;
+    }
+    return length > 0;
   }
 
   /**
-   * Adds temp list to sparse map. The key for sparse map entry is the register
-   * index determined by pPrime and value is the number of trailing zeroes.
-   * @return
+   * Adds temp list to sparse list. The temp list entries are (register index,
+   * number of trailing zeroes) pairs that are sorted in bulk and then merged
+   * linearly with the sparse list.
+   * @return true if any register value is updated else false
    */
-  private boolean mergeTempListToSparseMap() {
-    boolean updated = false;
+  private boolean mergeTempListToSparseList() {
+    // after sorting, entries of the same register index are adjacent with the
+    // largest value last. Retain only that one.
+    Arrays.sort(tempList, 0, tempListIdx);
+    int length = 0;
     for (int i = 0; i < tempListIdx; i++) {
-      int encodedHash = tempList[i];
-      int key = encodedHash & pPrimeMask;
-      byte value = (byte) (encodedHash >>> pPrime);
-      byte nr = 0;
-      // if MSB is set to 1 then next qPrime MSB bits contains the value of
-      // number of zeroes.
-      // if MSB is set to 0 then number of zeroes is contained within pPrime - p
-      // bits.
-      if (encodedHash < 0) {
-        nr = (byte) (value & qPrimeMask);
-      } else {
-        nr = (byte) (Integer.numberOfTrailingZeros(encodedHash >>> p) + 1);
+      if (i + 1 < tempListIdx && (tempList[i + 1] >>> qPrime) == (tempList[i] >>> qPrime)) {
+        continue;
       }
-      updated = set(key, nr);
+      tempList[length++] = tempList[i];
     }
+    boolean updated = mergeSorted(tempList, length);
 
     // reset temp list index
     tempListIdx = 0;
     return updated;
   }
 
+  /**
+   * Merges sorted packed entries into the sparse list retaining only the
+   * largest value for a register index.
+   * @param entries
+   *          - sorted packed entries (key &lt;&lt; qPrime | value) with unique
+   *            register indices
+   * @param length
+   *          - number of valid entries
+   * @return true if any register value is updated else false
+   */
+  boolean mergeSorted(int[] entries, int length) {
+    if (length == 0) {
+      return false;
+    }
+
+    // merge from the back so that the sparse list can be updated in place.
+    // Entries are written from the end of the (grown) array and moved next to
+    // the untouched prefix once done.
+    int capacity = sparseListSize + length;
+    if (sparseList.length < capacity) {
+      sparseList = Arrays.copyOf(sparseList, Math.max(capacity, sparseList.length * 2));
+    }
+    final int end = sparseList.length;
+    int i = sparseListSize - 1;
+    int j = length - 1;
+    int k = end;
+    boolean updated = false;
+    while (j >= 0) {
+      final int other = entries[j];
+      if (i >= 0) {
+        final int current = sparseList[i];
+        final int currentKey = current >>> qPrime;
+        final int otherKey = other >>> qPrime;
+        if (currentKey > otherKey) {
+          sparseList[--k] = current;
+          i--;
+          continue;
+        }
+        if (currentKey == otherKey) {
+          i--;
+          if (current >= other) {
+            sparseList[--k] = current;
+            j--;
+            continue;
+          }
+        }
+      }
+      sparseList[--k] = other;
+      updated = true;
+      j--;
+    }
+
+    final int merged = end - k;
+    if (k != i + 1) {
+      System.arraycopy(sparseList, k, sparseList, i + 1, merged);
+    }
+    sparseListSize = i + 1 + merged;
+    return updated;
+  }
+
   /**
    * <pre>
    * <b>Input:</b> 64 bit hashcode
@@ -149,20 +242,52 @@ public class HLLSparseRegister implements HLLRegister {
     }
   }
 
+  /**
+   * Decodes the output of encodeHash() to a sparse list entry.
+   * @param encodedHash
+   *          - encoded hashcode
+   * @return (register index, number of trailing zeroes) pair packed as
+   *         key &lt;&lt; qPrime | value
+   */
+  private int decodeHash(int encodedHash) {
+    int key = encodedHash & pPrimeMask;
+    int value = encodedHash >>> pPrime;
+    int nr;
+    // if MSB is set to 1 then next qPrime MSB bits contains the value of
+    // number of zeroes.
+    // if MSB is set to 0 then number of zeroes is contained within pPrime - p
+    // bits.
+    if (encodedHash < 0) {
+      nr = value & qPrimeMask;
+    } else {
+      nr = Integer.numberOfTrailingZeros(encodedHash >>> p) + 1;
+    }
+    return (key << qPrime) | nr;
+  }
+
+  /**
+   * @param hashcode
+   *          - hashcode to add
+   * @return sparse list entry that add(hashcode) eventually merges to the
+   *         sparse list
+   */
+  int getSparseEntry(long hashcode) {
+    return decodeHash(encodeHash(hashcode));
+  }
+
   public int getSize() {
-    return sparseMap.size() + tempListIdx;
+    return sparseListSize + tempListIdx;
   }
 
   public void merge(HLLRegister hllRegister) {
     if (hllRegister instanceof HLLSparseRegister) {
       HLLSparseRegister hsr = (HLLSparseRegister) hllRegister;
+      if (hsr == this) {
+        return;
+      }
 
       // retain only the largest value for a register index
-      for (Map.Entry<Integer, Byte> entry : hsr.getSparseMap().entrySet()) {
-        int key = entry.getKey();
-        byte value = entry.getValue();
-        set(key, value);
-      }
+      mergeSorted(hsr.getSparseList(), hsr.getSparseListSize());
     } else {
       throw new IllegalArgumentException("Specified register not instance of HLLSparseRegister");
     }
@@ -170,30 +295,132 @@ public class HLLSparseRegister implements HLLRegister {
 
   public boolean set(int key, byte value) {
     // retain only the largest value for a register index
-    Byte containedValue = sparseMap.get(key);
-    if (value > containedValue) {
-      sparseMap.put(key, value);
-      return true;
+    int idx = findKey(key);
+    if (idx >= 0) {
+      if (value > (sparseList[idx] & qPrimeMask)) {
+        sparseList[idx] = (key << qPrime) | value;
+        return true;
+      }
+      return false;
     }
-    return false;
+
+    if (value <= 0) {
+      return false;
+    }
+
+    // insert at the insertion point to keep the list sorted
+    idx = -(idx + 1);
+    if (sparseListSize == sparseList.length) {
+      sparseList = Arrays.copyOf(sparseList, Math.max(1, sparseList.length * 2));
+    }
+    System.arraycopy(sparseList, idx, sparseList, idx + 1, sparseListSize - idx);
+    sparseList[idx] = (key << qPrime) | value;
+    sparseListSize++;
+    return true;
   }
 
-  public Int2ByteSortedMap getSparseMap() {
-    return getMergedSparseMap();
+  /**
+   * Binary search for register index in the sparse list
+   * @param key
+   *          - register index
+   * @return position of the entry if found, else (-(insertion point) - 1)
+   */
+  private int findKey(int key) {
+    int low = 0;
+    int high = sparseListSize - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final int midKey = sparseList[mid] >>> qPrime;
+      if (midKey < key) {
+        low = mid + 1;
+      } else if (midKey > key) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /**
+   * Returns the sorted sparse list after merging the temp list. Each entry is
+   * encoded as (register index &lt;&lt; qPrime | register value). Only the first
+   * getSparseListSize() entries are valid and the returned array must not be
+   * modified.
+   * @return sorted sparse list
+   */
+  public int[] getSparseList() {
+    if (tempListIdx != 0) {
+      mergeTempListToSparseList();
+    }
+    return sparseList;
   }
 
-  private Int2ByteSortedMap getMergedSparseMap() {
+  /**
+   * @return number of valid entries in the sparse list after merging the temp
+   *         list
+   */
+  public int getSparseListSize() {
     if (tempListIdx != 0) {
-      mergeTempListToSparseMap();
+      mergeTempListToSparseList();
+    }
+    return sparseListSize;
+  }
+
+  /**
+   * Sparse list without merging the temp list, for readers that must not
+   * modify the register. The remaining entries are in the temp list.
+   * @return sorted sparse list, only the first peekSparseListSize() entries
+   *         are valid
+   */
+  int[] peekSparseList() {
+    return sparseList;
+  }
+
+  int peekSparseListSize() {
+    return sparseListSize;
+  }
+
+  /**
+   * Entries added since the temp list was last merged to the sparse list.
+   * They are not sorted and a register index can have several entries.
+   * @return temp list, only the first peekTempListSize() entries are valid
+   */
+  int[] peekTempList() {
+    return tempList;
+  }
+
+  int peekTempListSize() {
+    return tempListIdx;
+  }
+
+  /**
+   * Copy of the sparse list as a sorted map of register index to register
+   * value.
+   * @deprecated use {@link #getSparseList()} which does not allocate
+   * @return sorted map
+   */
+  @Deprecated
+  public Int2ByteSortedMap getSparseMap() {
+    Int2ByteSortedMap result = new Int2ByteAVLTreeMap();
+    int[] entries = getSparseList();
+    for (int i = 0; i < sparseListSize; i++) {
+      result.put(entries[i] >>> qPrime, (byte) (entries[i] & qPrimeMask));
     }
-    return sparseMap;
+    return result;
   }
 
-  // this is effectively the same as the dense register impl.
+  // this is effectively the same as the dense register impl. Registers keep
+  // the max value, so the temp list is read as is without merging it.
   public void extractLowBitsTo(HLLRegister dest) {
-    for (Entry<Integer, Byte> entry : getSparseMap().entrySet()) {
-      int idx = entry.getKey();
-      byte lr = entry.getValue(); // this can be a max of 65, never > 127
+    extractLowBitsTo(sparseList, sparseListSize, dest);
+    extractLowBitsTo(tempList, tempListIdx, dest);
+  }
+
+  private void extractLowBitsTo(int[] entries, int size, HLLRegister dest) {
+    for (int i = 0; i < size; i++) {
+      int idx = entries[i] >>> qPrime;
+      byte lr = (byte) (entries[i] & qPrimeMask); // this can be a max of 65, never > 127
       if (lr != 0) {
         // should be a no-op for sparse
         dest.add((long) ((1 << (p + lr - 1)) | idx));
@@ -209,6 +436,10 @@ public class HLLSparseRegister implements HLLRegister {
     return pPrime;
   }
 
+  public int getQPrime() {
+    return qPrime;
+  }
+
   @Override
   public String toString() {
     StringBuilder sb = new StringBuilder();
@@ -223,7 +454,19 @@ public class HLLSparseRegister implements HLLRegister {
   }
 
   public String toExtendedString() {
-    return toString() + " register: " + sparseMap.toString();
+    StringBuilder sb = new StringBuilder();
+    sb.append(toString());
+    sb.append(" register: {");
+    for (int i = 0; i < sparseListSize; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(sparseList[i] >>> qPrime);
+      sb.append("=>");
+      sb.append(sparseList[i] & qPrimeMask);
+    }
+    sb.append("}");
+    return sb.toString();
   }
 
   @Override
@@ -233,7 +476,7 @@ public class HLLSparseRegister implements HLLRegister {
     }
     HLLSparseRegister other = (HLLSparseRegister) obj;
     boolean result = p == other.p && pPrime == other.pPrime && qPrime == other.qPrime
-      && tempListIdx == other.tempListIdx;
+      && tempListIdx == other.tempListIdx && sparseListSize == other.sparseListSize;
     if (result) {
       for (int i = 0; i < tempListIdx; i++) {
         if (tempList[i] != other.tempList[i]) {
@@ -241,7 +484,11 @@ public class HLLSparseRegister implements HLLRegister {
         }
       }
 
-      result = result && sparseMap.equals(other.sparseMap);
+      for (int i = 0; i < sparseListSize; i++) {
+        if (sparseList[i] != other.sparseList[i]) {
+          return false;
+        }
+      }
     }
     return result;
   }
@@ -253,9 +500,11 @@ public class HLLSparseRegister implements HLLRegister {
     hashcode += 31 * pPrime;
     hashcode += 31 * qPrime;
     for (int i = 0; i < tempListIdx; i++) {
-      hashcode += 31 * tempList[tempListIdx];
+      hashcode += 31 * tempList[i];
+    }
+    for (int i = 0; i < sparseListSize; i++) {
+      hashcode = 31 * hashcode + sparseList[i];
     }
-    hashcode += sparseMap.hashCode();
     return hashcode;
   }
 
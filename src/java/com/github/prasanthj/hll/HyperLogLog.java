@@ -15,10 +15,14 @@ package com.github.prasanthj.hll;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
-import java.util.Map;
-
-import it.unimi.dsi.fastutil.doubles.Double2IntAVLTreeMap;
-import it.unimi.dsi.fastutil.doubles.Double2IntSortedMap;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntToLongFunction;
+import java.util.stream.Stream;
 
 /**
  * <pre>
@@ -40,6 +44,8 @@ import it.unimi.dsi.fastutil.doubles.Double2IntSortedMap;
  *            switches to DENSE beyond a threshold. <i>Default: SPARSE</i>
  * <b>enableBitPacking</b> - To enable bit packing or not. Bit packing improves compression
  *                    at the cost of more CPU cycles. <i>Default: true</i>
+ * <b>enableRegisterPacking</b> - To keep DENSE registers bit packed (6 bits per register)
+ *                    in memory instead of one byte per register. <i>Default: false</i>
  * <b>noBias</b> - Use Google's bias table lookup for short range bias correction.
  *          Enabling this will highly improve the estimation accuracy for short
  *          range values. <i>Default: true</i>
@@ -50,9 +56,11 @@ public class HyperLogLog {
   private final static int DEFAULT_HASH_BITS = 64;
   private final static long HASH64_ZERO = Murmur3.hash64(new byte[]{0});
   private final static long HASH64_ONE = Murmur3.hash64(new byte[]{1});
-  private final static ByteBuffer SHORT_BUFFER = ByteBuffer.allocate(Short.BYTES);
-  private final static ByteBuffer INT_BUFFER = ByteBuffer.allocate(Integer.BYTES);
-  private final static ByteBuffer LONG_BUFFER = ByteBuffer.allocate(Long.BYTES);
+
+  // strings are hashed without encoding them to an array if the default
+  // charset is UTF-8
+  private final static boolean DEFAULT_CHARSET_UTF8 =
+      StandardCharsets.UTF_8.equals(Charset.defaultCharset());
 
   public enum EncodingType {
     SPARSE, DENSE
@@ -73,6 +81,9 @@ public class HyperLogLog {
   // enable/disable bitpacking
   private final boolean bitPacking;
 
+  // enable/disable in-memory bitpacking of dense registers
+  private final boolean registerPacking;
+
   // Not making it configurable for perf reasons (avoid checks)
   private final int chosenHashBits = DEFAULT_HASH_BITS;
 
@@ -89,6 +100,10 @@ public class HyperLogLog {
   // threshold to switch from SPARSE to DENSE encoding
   private int encodingSwitchThreshold;
 
+  // hashcodes of the values added by addBytes(byte[][]), addInts() and
+  // addLongs(), allocated on first use and reused by later calls
+  private long[] hashBlock;
+
   private HyperLogLog(HyperLogLogBuilder hllBuilder) {
     if (hllBuilder.numRegisterIndexBits < HLLConstants.MIN_P_VALUE
       || hllBuilder.numRegisterIndexBits > HLLConstants.MAX_P_VALUE) {
@@ -99,6 +114,7 @@ public class HyperLogLog {
     this.m = 1 << p;
     this.noBias = hllBuilder.noBias;
     this.bitPacking = hllBuilder.bitPacking;
+    this.registerPacking = hllBuilder.registerPacking;
 
     // the threshold should be less than 12K bytes for p = 14.
     // The reason to divide by 5 is, in sparse mode after serialization the
@@ -129,7 +145,7 @@ public class HyperLogLog {
       this.denseRegister = null;
     } else {
       this.sparseRegister = null;
-      this.denseRegister = new HLLDenseRegister(p, bitPacking);
+      this.denseRegister = newDenseRegister(p);
     }
   }
 
@@ -142,6 +158,7 @@ public class HyperLogLog {
     private EncodingType encoding = EncodingType.SPARSE;
     private boolean bitPacking = true;
     private boolean noBias = true;
+    private boolean registerPacking = false;
 
     public HyperLogLogBuilder() {
     }
@@ -166,6 +183,11 @@ public class HyperLogLog {
       return this;
     }
 
+    public HyperLogLogBuilder enableRegisterPacking(boolean rp) {
+      this.registerPacking = rp;
+      return this;
+    }
+
     public HyperLogLog build() {
       return new HyperLogLog(this);
     }
@@ -192,7 +214,7 @@ public class HyperLogLog {
   }
 
   public void addByte(byte val) {
-    add(Murmur3.hash64(new byte[]{val}));
+    add(Murmur3.hash64(val));
   }
 
   public void addBytes(byte[] val) {
@@ -200,33 +222,27 @@ public class HyperLogLog {
   }
 
   public void addShort(short val) {
-    SHORT_BUFFER.putShort(0, val);
-    add(Murmur3.hash64(SHORT_BUFFER.array()));
+    add(Murmur3.hash64(val));
   }
 
   public void addInt(int val) {
-    INT_BUFFER.putInt(0, val);
-    add(Murmur3.hash64(INT_BUFFER.array()));
+    add(Murmur3.hash64(val));
   }
 
   public void addLong(long val) {
-    LONG_BUFFER.putLong(0, val);
-    add(Murmur3.hash64(LONG_BUFFER.array()));
+    add(Murmur3.hash64(val));
   }
 
   public void addFloat(float val) {
-    INT_BUFFER.putFloat(0, val);
-    add(Murmur3.hash64(INT_BUFFER.array()));
+    add(Murmur3.hash64(val));
   }
 
   public void addDouble(double val) {
-    LONG_BUFFER.putDouble(0, val);
-    add(Murmur3.hash64(LONG_BUFFER.array()));
+    add(Murmur3.hash64(val));
   }
 
   public void addChar(char val) {
-    SHORT_BUFFER.putChar(0, val);
-    add(Murmur3.hash64(SHORT_BUFFER.array()));
+    add(Murmur3.hash64(val));
   }
 
   /**
@@ -235,11 +251,147 @@ public class HyperLogLog {
    *          - input string
    */
   public void addString(String val) {
-    add(Murmur3.hash64(val.getBytes()));
+    if (DEFAULT_CHARSET_UTF8) {
+      add(Murmur3.hash64Utf8(val));
+    } else {
+      add(Murmur3.hash64(val.getBytes()));
+    }
   }
 
   public void addString(String val, Charset charset) {
-    add(Murmur3.hash64(val.getBytes(charset)));
+    if (StandardCharsets.UTF_8.equals(charset)) {
+      add(Murmur3.hash64Utf8(val));
+    } else {
+      add(Murmur3.hash64(val.getBytes(charset)));
+    }
+  }
+
+  /**
+   * Adds the UTF-8 encoding of the chars. Same as addString(val.toString(),
+   * UTF_8) without creating the string or the encoded bytes.
+   * @param val
+   *          - input chars
+   */
+  public void addChars(CharSequence val) {
+    add(Murmur3.hash64Utf8(val));
+  }
+
+  /**
+   * Adds the UTF-8 encoding of the chars in the specified range.
+   * @param val
+   *          - input chars
+   * @param offset
+   *          - offset of the first char
+   * @param length
+   *          - number of chars
+   */
+  public void addChars(char[] val, int offset, int length) {
+    add(Murmur3.hash64Utf8(val, offset, length));
+  }
+
+  public void addBytes(byte[] val, int offset, int length) {
+    add(Murmur3.hash64(val, offset, length, Murmur3.DEFAULT_SEED));
+  }
+
+  /**
+   * Adds the bytes between position and limit of a heap or direct buffer
+   * without copying them. Same as addBytes() of those bytes. The position of
+   * the buffer is not changed.
+   * @param val
+   *          - input buffer
+   */
+  public void addBytes(ByteBuffer val) {
+    add(Murmur3.hash64(val));
+  }
+
+  /**
+   * Adds the specified bytes of a heap or direct buffer without copying them.
+   * @param val
+   *          - input buffer
+   * @param offset
+   *          - absolute index of the first byte
+   * @param length
+   *          - number of bytes
+   */
+  public void addBytes(ByteBuffer val, int offset, int length) {
+    add(Murmur3.hash64(val, offset, length, Murmur3.DEFAULT_SEED));
+  }
+
+  /**
+   * Adds values[offset] to values[offset + length - 1]. Same as calling
+   * addBytes() for each of them.
+   */
+  public void addBytes(byte[][] values, int offset, int length) {
+    addHashed(i -> Murmur3.hash64(values[i]), offset, length);
+  }
+
+  /**
+   * Adds values[offset] to values[offset + length - 1]. Same as calling
+   * addInt() for each of them.
+   */
+  public void addInts(int[] values, int offset, int length) {
+    addHashed(i -> Murmur3.hash64(values[i]), offset, length);
+  }
+
+  /**
+   * Adds values[offset] to values[offset + length - 1]. Same as calling
+   * addLong() for each of them.
+   */
+  public void addLongs(long[] values, int offset, int length) {
+    addHashed(i -> Murmur3.hash64(values[i]), offset, length);
+  }
+
+  /**
+   * Hashes the values at offset to offset + length - 1 a block at a time into
+   * hashBlock and adds each block with addHashes().
+   */
+  private void addHashed(IntToLongFunction hash, int offset, int length) {
+    if (hashBlock == null) {
+      hashBlock = new long[HLLConstants.TEMP_LIST_DEFAULT_SIZE];
+    }
+    for (int i = 0; i < length; i += hashBlock.length) {
+      final int n = Math.min(hashBlock.length, length - i);
+      for (int j = 0; j < n; j++) {
+        hashBlock[j] = hash.applyAsLong(offset + i + j);
+      }
+      addHashes(hashBlock, 0, n);
+    }
+  }
+
+  /**
+   * Adds hashcodes[offset] to hashcodes[offset + length - 1]. Same as calling
+   * add() for each of them, but the encoding is checked once per block of
+   * hashcodes instead of once per hashcode.
+   * @param hashcodes
+   *          - array of hashcodes
+   * @param offset
+   *          - index of the first hashcode to add
+   * @param length
+   *          - number of hashcodes to add
+   */
+  public void addHashes(long[] hashcodes, int offset, int length) {
+    int i = offset;
+    final int end = offset + length;
+    while (i < end && encoding.equals(EncodingType.SPARSE)) {
+      // size of the sparse register grows by at most one per hashcode, so
+      // these many hashcodes can be added before checking the threshold again
+      final int n = Math.min(end - i,
+        Math.max(1, encodingSwitchThreshold - sparseRegister.getSize()));
+      if (sparseRegister.add(hashcodes, i, n)) {
+        invalidateCount = true;
+      }
+      i += n;
+
+      if (sparseRegister.getSize() > encodingSwitchThreshold) {
+        encoding = EncodingType.DENSE;
+        denseRegister = sparseToDenseRegister(sparseRegister);
+        sparseRegister = null;
+        invalidateCount = true;
+      }
+    }
+    if (i < end && denseRegister.add(hashcodes, i, end - i)) {
+      invalidateCount = true;
+    }
   }
 
   public void add(long hashcode) {
@@ -273,7 +425,7 @@ public class HyperLogLog {
         // if encoding is still SPARSE use linear counting with increase
         // accuracy (as we use pPrime bits for register index)
         int mPrime = 1 << sparseRegister.getPPrime();
-        cachedCount = linearCount(mPrime, mPrime - sparseRegister.getSparseMap().size());
+        cachedCount = linearCount(mPrime, mPrime - sparseRegister.getSparseListSize());
       } else {
 
         // for DENSE encoding, use bias table lookup for HLLNoBias algorithm
@@ -288,8 +440,8 @@ public class HyperLogLog {
 
         // when bias correction is enabled
         if (noBias) {
-          cachedCount = cachedCount <= 5 * m ? (cachedCount - estimateBias(cachedCount))
-            : cachedCount;
+          cachedCount = cachedCount <= 5 * m
+            ? (cachedCount - HLLBiasCorrection.estimateBias(p, cachedCount)) : cachedCount;
           long h = cachedCount;
           if (numZeros != 0) {
             h = linearCount(m, numZeros);
@@ -332,47 +484,12 @@ public class HyperLogLog {
     return (long) (HLLConstants.thresholdData[p - 4] + 0.5);
   }
 
-  /**
-   * Estimate bias from lookup table
-   * @param count
-   *          - cardinality before bias correction
-   * @return cardinality after bias correction
-   */
-  private long estimateBias(long count) {
-    double[] rawEstForP = HLLConstants.rawEstimateData[p - 4];
-
-    // compute distance and store it in sorted map
-    Double2IntSortedMap estIndexMap = new Double2IntAVLTreeMap();
-    double distance = 0;
-    for (int i = 0; i < rawEstForP.length; i++) {
-      distance = Math.pow(count - rawEstForP[i], 2);
-      estIndexMap.put(distance, i);
-    }
-
-    // take top-k closest neighbors and compute the bias corrected cardinality
-    long result = 0;
-    double[] biasForP = HLLConstants.biasData[p - 4];
-    double biasSum = 0;
-    int kNeighbors = HLLConstants.K_NEAREST_NEIGHBOR;
-    for (Map.Entry<Double, Integer> entry : estIndexMap.entrySet()) {
-      biasSum += biasForP[entry.getValue()];
-      kNeighbors--;
-      if (kNeighbors <= 0) {
-        break;
-      }
-    }
-
-    // 0.5 added for rounding off
-    result = (long) ((biasSum / HLLConstants.K_NEAREST_NEIGHBOR) + 0.5);
-    return result;
-  }
-
   public void setCount(long count) {
     this.cachedCount = count;
     this.invalidateCount = true;
   }
 
-  private long linearCount(int mVal, long numZeros) {
+  static long linearCount(int mVal, long numZeros) {
     return (long) (Math.round(mVal * Math.log(mVal / ((double) numZeros))));
   }
 
@@ -390,11 +507,22 @@ public class HyperLogLog {
   }
 
   /**
-   * Reconstruct sparse map from serialized integer list
+   * Reconstruct sparse map from serialized integer list. Entries sorted by
+   * register index (as written by the serializer) are merged in a single
+   * linear pass.
    * @param reg
    *          - uncompressed and delta decoded integer list
    */
   public void setHLLSparseRegister(int[] reg) {
+    boolean sorted = true;
+    for (int i = 1; i < reg.length && sorted; i++) {
+      sorted = (reg[i - 1] >>> HLLConstants.Q_PRIME_VALUE) < (reg[i] >>> HLLConstants.Q_PRIME_VALUE);
+    }
+    if (sorted) {
+      sparseRegister.mergeSorted(reg, reg.length);
+      return;
+    }
+
     for (int i : reg) {
       int key = i >>> HLLConstants.Q_PRIME_VALUE;
       byte value = (byte) (i & 0x3f);
@@ -403,16 +531,27 @@ public class HyperLogLog {
   }
 
   /**
-   * Reconstruct dense registers from byte array
+   * Reconstruct dense registers from byte array. If all registers are zero,
+   * the array is adopted as the register (and must not be modified by the
+   * caller afterwards), else the registers are merged with it.
    * @param reg
    *          - unpacked byte array
    */
   public void setHLLDenseRegister(byte[] reg) {
-    int i = 0;
-    for (byte b : reg) {
-      denseRegister.set(i, b);
-      i++;
+    if (reg.length != m) {
+      int i = 0;
+      for (byte b : reg) {
+        denseRegister.set(i, b);
+        i++;
+      }
+    } else if (denseRegister.getNumZeroes() == m) {
+      denseRegister.setRegister(reg);
+    } else {
+      byte[] register = denseRegister.getRegister();
+      HLLDenseRegister.maxRegisters(register, reg);
+      denseRegister.setRegister(register);
     }
+    invalidateCount = true;
   }
 
   /**
@@ -458,13 +597,336 @@ public class HyperLogLog {
       sparseRegister = null;
       encoding = EncodingType.DENSE;
     } else if (encoding.equals(EncodingType.DENSE) && otherEncoding.equals(EncodingType.SPARSE)) {
-      HLLDenseRegister otherDenseRegister = sparseToDenseRegister(hll.getHLLSparseRegister());
-      denseRegister.merge(otherDenseRegister);
+      // fold the sparse entries into the registers without a temporary dense
+      // register
+      HLLSparseRegister otherSparseRegister = hll.getHLLSparseRegister();
+      denseRegister.foldSparse(otherSparseRegister.getSparseList(),
+        otherSparseRegister.getSparseListSize());
+    }
+
+    invalidateCount = true;
+  }
+
+  /**
+   * Merge the serialized hyperloglog in the view to the current one. When p
+   * is the same, registers are merged directly from the view without
+   * deserializing the hyperloglog. The result is the same as merging the
+   * deserialized hyperloglog.
+   * @param view
+   *          - view of the serialized hyperloglog to be merged
+   * @throws IllegalArgumentException - throw when incompatible HLL are tried to be merged
+   */
+  public void merge(HyperLogLogView view) {
+    if (p != view.getNumRegisterIndexBits()) {
+      // squashing needs a hyperloglog
+      merge(view.toHyperLogLog());
+      return;
+    }
+
+    if (view.getEncoding().equals(EncodingType.DENSE)) {
+      if (encoding.equals(EncodingType.SPARSE)) {
+        denseRegister = sparseToDenseRegister(sparseRegister);
+        sparseRegister = null;
+        encoding = EncodingType.DENSE;
+      }
+      denseRegister.merge(view.getDenseRegister());
+    } else {
+      int[] sparseList = view.getSparseList();
+      int sparseListSize = view.getSparseListSize();
+      if (encoding.equals(EncodingType.SPARSE)) {
+        sparseRegister.mergeSorted(sparseList, sparseListSize);
+        // if after merge the sparse switching threshold is exceeded then change
+        // to dense encoding
+        if (sparseRegister.getSize() > encodingSwitchThreshold) {
+          encoding = EncodingType.DENSE;
+          denseRegister = sparseToDenseRegister(sparseRegister);
+          sparseRegister = null;
+        }
+      } else {
+        denseRegister.foldSparse(sparseList, sparseListSize);
+      }
     }
 
     invalidateCount = true;
   }
 
+  /**
+   * Union of the specified hyperloglogs. Unlike merging hyperloglogs one at a
+   * time, the encoding of the result is picked once, SPARSE inputs are folded
+   * with a single sort, DENSE inputs are max-reduced into one register and the
+   * count is computed only once at the end. The result is a new hyperloglog
+   * with the smallest p among the inputs (inputs with larger p are squashed)
+   * and the remaining configuration of the first input with that p. Inputs
+   * are only read, so a hyperloglog can be an input of concurrent unions as
+   * long as it is not updated at the same time.
+   * @param hlls
+   *          - hyperloglogs to union
+   * @return union of the hyperloglogs
+   * @throws IllegalArgumentException - thrown when there are no hyperloglogs or
+   *           when incompatible hyperloglogs are provided
+   */
+  public static HyperLogLog union(Collection<HyperLogLog> hlls) {
+    HyperLogLog template = null;
+    for (HyperLogLog hll : hlls) {
+      if (template == null || hll.p < template.p) {
+        template = hll;
+      }
+    }
+    if (template == null) {
+      throw new IllegalArgumentException("No HyperLogLogs specified for union");
+    }
+    Union union = new Union(template);
+    for (HyperLogLog hll : hlls) {
+      union.add(hll);
+    }
+    return union.build();
+  }
+
+  /**
+   * Same as {@link #union(Collection)} for inputs that can be iterated only
+   * once. The first hyperloglog determines p and configuration of the result,
+   * so none of the following hyperloglogs can have a smaller p.
+   * @param hlls
+   *          - hyperloglogs to union
+   * @return union of the hyperloglogs
+   * @throws IllegalArgumentException - thrown when there are no hyperloglogs or
+   *           when incompatible hyperloglogs are provided
+   */
+  public static HyperLogLog union(Iterator<HyperLogLog> hlls) {
+    if (!hlls.hasNext()) {
+      throw new IllegalArgumentException("No HyperLogLogs specified for union");
+    }
+    HyperLogLog first = hlls.next();
+    Union union = new Union(first);
+    union.add(first);
+    while (hlls.hasNext()) {
+      union.add(hlls.next());
+    }
+    return union.build();
+  }
+
+  /**
+   * Same as {@link #union(Iterator)}
+   * @param hlls
+   *          - hyperloglogs to union
+   * @return union of the hyperloglogs
+   */
+  public static HyperLogLog union(Stream<HyperLogLog> hlls) {
+    return union(hlls.iterator());
+  }
+
+  /**
+   * Same as {@link #union(Collection)} but the hyperloglogs are unioned in
+   * parallel using the specified pool. The inputs are split recursively,
+   * every split of at most PARALLEL_UNION_THRESHOLD hyperloglogs is unioned
+   * sequentially and the partial unions are combined pairwise. As union is
+   * commutative and associative (per register max) the result is identical
+   * to merging the inputs sequentially.
+   * @param hlls
+   *          - hyperloglogs to union
+   * @param pool
+   *          - fork join pool to run the union in
+   * @return union of the hyperloglogs
+   * @throws IllegalArgumentException - thrown when there are no hyperloglogs or
+   *           when incompatible hyperloglogs are provided
+   */
+  public static HyperLogLog union(Collection<HyperLogLog> hlls, ForkJoinPool pool) {
+    HyperLogLog[] inputs = hlls.toArray(new HyperLogLog[hlls.size()]);
+    HyperLogLog template = null;
+    for (HyperLogLog hll : inputs) {
+      if (template == null || hll.p < template.p) {
+        template = hll;
+      }
+    }
+    if (template == null) {
+      throw new IllegalArgumentException("No HyperLogLogs specified for union");
+    }
+    return pool.invoke(new UnionTask(template, inputs, 0, inputs.length)).build();
+  }
+
+  /**
+   * Tree reduction for parallel union. Partial unions share the template so
+   * that they have the same p and configuration as the final result. They
+   * are combined as accumulated registers and only the root builds the
+   * result, so the count is computed once.
+   */
+  private static final class UnionTask extends RecursiveTask<Union> {
+    private static final long serialVersionUID = 1L;
+
+    private final HyperLogLog template;
+    private final HyperLogLog[] hlls;
+    private final int from;
+    private final int to;
+
+    UnionTask(HyperLogLog template, HyperLogLog[] hlls, int from, int to) {
+      this.template = template;
+      this.hlls = hlls;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected Union compute() {
+      if (to - from <= HLLConstants.PARALLEL_UNION_THRESHOLD) {
+        Union union = new Union(template);
+        for (int i = from; i < to; i++) {
+          union.add(hlls[i]);
+        }
+        return union;
+      }
+      int mid = (from + to) >>> 1;
+      UnionTask left = new UnionTask(template, hlls, from, mid);
+      UnionTask right = new UnionTask(template, hlls, mid, to);
+      left.fork();
+      Union union = right.compute();
+      union.add(left.join());
+      return union;
+    }
+  }
+
+  /**
+   * Accumulates registers for union(). SPARSE entries are buffered (and
+   * compacted when the buffer fills up) until the union has to switch to DENSE
+   * at which point all entries are folded to a single register array.
+   */
+  static final class Union {
+    private final HyperLogLog result;
+    private final int pMask;
+    private byte[] dense;
+    private int[] sparse;
+    private int sparseSize;
+
+    Union(HyperLogLog template) {
+      this.result = new HyperLogLogBuilder().setNumRegisterIndexBits(template.p)
+        .setEncoding(EncodingType.SPARSE).enableBitPacking(template.bitPacking)
+        .enableNoBias(template.noBias).enableRegisterPacking(template.registerPacking).build();
+      this.pMask = result.m - 1;
+      this.sparse = new int[Math.max(HLLConstants.SPARSE_LIST_INITIAL_SIZE,
+        result.encodingSwitchThreshold)];
+      this.sparseSize = 0;
+    }
+
+    void add(HyperLogLog hll) {
+      if (result.chosenHashBits != hll.chosenHashBits) {
+        throw new IllegalArgumentException(
+          "HyperLogLog cannot be merged as either p or hashbits are different. Current: "
+            + result.toString() + " Provided: " + hll.toString());
+      }
+      if (result.p > hll.p) {
+        throw new IllegalArgumentException(
+          "HyperLogLog cannot merge a smaller p into a larger one : "
+            + result.toString() + " Provided: " + hll.toString());
+      }
+      if (result.p != hll.p) {
+        hll = hll.squash(result.p);
+      }
+
+      if (hll.encoding.equals(EncodingType.DENSE)) {
+        toDense();
+        hll.denseRegister.maxInto(dense);
+        return;
+      }
+
+      // the temp list is read as is instead of merging it to the sparse list,
+      // so that the input is not modified. Entries are compacted here anyway.
+      HLLSparseRegister sparseRegister = hll.sparseRegister;
+      addSparse(sparseRegister.peekSparseList(), sparseRegister.peekSparseListSize());
+      addSparse(sparseRegister.peekTempList(), sparseRegister.peekTempListSize());
+    }
+
+    /**
+     * Adds the registers accumulated by another union with the same template.
+     */
+    void add(Union other) {
+      if (other.dense != null) {
+        toDense();
+        HLLDenseRegister.maxRegisters(dense, other.dense);
+      } else {
+        addSparse(other.sparse, other.sparseSize);
+      }
+    }
+
+    private void addSparse(int[] sparseList, int sparseListSize) {
+      if (dense != null) {
+        foldSparse(sparseList, sparseListSize);
+        return;
+      }
+
+      if (sparseSize + sparseListSize > sparse.length) {
+        compactSparse();
+        if (sparseSize > result.encodingSwitchThreshold) {
+          toDense();
+          foldSparse(sparseList, sparseListSize);
+          return;
+        }
+        if (sparseSize + sparseListSize > sparse.length) {
+          sparse = Arrays.copyOf(sparse, Math.max(sparse.length * 2, sparseSize + sparseListSize));
+        }
+      }
+      System.arraycopy(sparseList, 0, sparse, sparseSize, sparseListSize);
+      sparseSize += sparseListSize;
+    }
+
+    HyperLogLog build() {
+      if (dense == null) {
+        compactSparse();
+        if (sparseSize > result.encodingSwitchThreshold) {
+          toDense();
+        }
+      }
+
+      if (dense != null) {
+        result.encoding = EncodingType.DENSE;
+        result.sparseRegister = null;
+        result.denseRegister = result.newDenseRegister(result.p);
+        result.denseRegister.setRegister(dense);
+      } else {
+        result.sparseRegister.mergeSorted(sparse, sparseSize);
+      }
+      dense = null;
+      sparse = null;
+
+      // compute the count once
+      result.invalidateCount = true;
+      result.count();
+      return result;
+    }
+
+    private void toDense() {
+      if (dense == null) {
+        dense = new byte[result.m];
+        foldSparse(sparse, sparseSize);
+        sparse = null;
+        sparseSize = 0;
+      }
+    }
+
+    private void foldSparse(int[] sparseList, int sparseListSize) {
+      for (int i = 0; i < sparseListSize; i++) {
+        final int idx = (sparseList[i] >>> HLLConstants.Q_PRIME_VALUE) & pMask;
+        final byte value = (byte) (sparseList[i] & 0x3f);
+        if (value > dense[idx]) {
+          dense[idx] = value;
+        }
+      }
+    }
+
+    // sort the buffered entries and retain only the largest value for a
+    // register index
+    private void compactSparse() {
+      Arrays.sort(sparse, 0, sparseSize);
+      int length = 0;
+      for (int i = 0; i < sparseSize; i++) {
+        if (i + 1 < sparseSize && (sparse[i + 1] >>> HLLConstants.Q_PRIME_VALUE)
+          == (sparse[i] >>> HLLConstants.Q_PRIME_VALUE)) {
+          continue;
+        }
+        sparse[length++] = sparse[i];
+      }
+      sparseSize = length;
+    }
+  }
+
   /**
    * Reduces the accuracy of the HLL provided to a smaller size
    * @param p0
@@ -484,7 +946,7 @@ public class HyperLogLog {
 
     final HyperLogLog hll = new HyperLogLogBuilder()
       .setNumRegisterIndexBits(p0).setEncoding(EncodingType.DENSE)
-      .enableNoBias(noBias).build();
+      .enableNoBias(noBias).enableRegisterPacking(registerPacking).build();
     final HLLDenseRegister result = hll.denseRegister;
 
     if (encoding == EncodingType.SPARSE) {
@@ -505,17 +967,18 @@ public class HyperLogLog {
     if (sparseRegister == null) {
       return null;
     }
-    int p = sparseRegister.getP();
-    int pMask = (1 << p) - 1;
-    HLLDenseRegister result = new HLLDenseRegister(p, bitPacking);
-    for (Map.Entry<Integer, Byte> entry : sparseRegister.getSparseMap().entrySet()) {
-      int key = entry.getKey();
-      int idx = key & pMask;
-      result.set(idx, entry.getValue());
-    }
+    HLLDenseRegister result = newDenseRegister(sparseRegister.getP());
+    result.foldSparse(sparseRegister.getSparseList(), sparseRegister.getSparseListSize());
     return result;
   }
 
+  private HLLDenseRegister newDenseRegister(int p) {
+    if (registerPacking) {
+      return new HLLPackedDenseRegister(p, bitPacking);
+    }
+    return new HLLDenseRegister(p, bitPacking);
+  }
+
   @Override
   public String toString() {
     StringBuilder sb = new StringBuilder();
@@ -0,0 +1,695 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+import com.github.prasanthj.hll.HyperLogLog.EncodingType;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * <pre>
+ * Persistent store of hyperloglogs keyed by long ids, backed by memory mapped
+ * files. All hyperloglogs in a store have the same p. Sketches are updated in
+ * place in the mapped files and there are no per sketch java objects, so the
+ * number of sketches is bounded by disk space and not by heap size. Reopening
+ * a store only maps the files.
+ *
+ * The store directory contains 3 files
+ *
+ * hll.index  - header followed by an open addressing hash table of
+ *              (key, reference) pairs. The table is rehashed to a new file
+ *              that replaces the old one when it is half full.
+ * hll.dense  - fixed size slots of DENSE registers, bitpacked 6 bits per
+ *              register. This is the same layout as the registers of a
+ *              hyperloglog serialized by HyperLogLogUtils with 6 bit packing.
+ * hll.sparse - variable size blocks of SPARSE lists. A block has an int
+ *              size followed by sorted sparse list entries (same encoding
+ *              as HLLSparseRegister). Blocks come in power of 2 capacities.
+ *              A block is moved to a block of twice the capacity when it is
+ *              full, and to a dense slot when the number of entries exceeds
+ *              the same threshold at which HyperLogLog switches to DENSE.
+ *              Freed blocks are reused through per capacity free lists.
+ *
+ * Reference of a key in the index is
+ * (slot &lt;&lt; 1) | 1                               for DENSE
+ * ((block offset &lt;&lt; 5) | capacity class) &lt;&lt; 1   for SPARSE
+ *
+ * String ids are mapped to long keys using 64 bit Murmur3 hash.
+ *
+ * Updates are written to the mapped files directly and survive the process
+ * exiting. Use flush() to write them to the storage device. The store is not
+ * thread safe.
+ * </pre>
+ */
+public class HyperLogLogStore implements Closeable {
+
+  private static final long MAGIC = 0x484c4c53544f5245L;
+  private static final int VERSION = 1;
+
+  static final String INDEX_FILE = "hll.index";
+  static final String DENSE_FILE = "hll.dense";
+  static final String SPARSE_FILE = "hll.sparse";
+
+  // 256MB segments
+  static final int DEFAULT_SEGMENT_SHIFT = 28;
+
+  // segments must be able to hold the largest dense slot and sparse block
+  static final int MIN_SEGMENT_SHIFT = 17;
+
+  // layout of the header of the index file
+  private static final int VERSION_OFFSET = 8;
+  private static final int P_OFFSET = 12;
+  private static final int SEGMENT_SHIFT_OFFSET = 16;
+  private static final int NUM_KEYS_OFFSET = 24;
+  private static final int CAPACITY_OFFSET = 32;
+  private static final int NUM_DENSE_SLOTS_OFFSET = 40;
+  private static final int SPARSE_END_OFFSET = 48;
+  private static final int FREE_LISTS_OFFSET = 64;
+  private static final int NUM_CAPACITY_CLASSES = 16;
+  private static final int HEADER_SIZE = FREE_LISTS_OFFSET + 8 * NUM_CAPACITY_CLASSES;
+
+  // (key, reference) pair
+  private static final int ENTRY_SIZE = 16;
+  private static final long INITIAL_CAPACITY = 1024;
+
+  // capacity of the smallest sparse block
+  private static final int MIN_SPARSE_CAPACITY = 4;
+
+  // offset 0 of the sparse file marks the end of free lists
+  private static final long SPARSE_START = 8;
+
+  private static final int REGISTER_BITS = HLLPackedDenseRegister.BITS_PER_REGISTER;
+  private static final int REGISTER_MASK = (1 << REGISTER_BITS) - 1;
+
+  private final File dir;
+  private final int p;
+  private final int m;
+  private final int segmentShift;
+
+  // number of entries after which a sparse list is moved to a dense slot
+  private final int encodingSwitchThreshold;
+  private final int slotSize;
+  private final int slotsPerSegment;
+
+  private MappedFile index;
+  private final MappedFile dense;
+  private final MappedFile sparse;
+  private long capacity;
+
+  // converts hashcodes to sparse list entries
+  private final HLLSparseRegister sparseCodec;
+
+  // scratch space for unpacked dense registers
+  private final byte[] registers;
+  private HyperLogLog scratch;
+
+  /**
+   * Opens an existing store.
+   * @param dir
+   *          - store directory
+   * @return store
+   * @throws IOException - thrown when the store cannot be read
+   */
+  public static HyperLogLogStore open(File dir) throws IOException {
+    File indexFile = new File(dir, INDEX_FILE);
+    if (!indexFile.exists()) {
+      throw new IllegalArgumentException("No HyperLogLogStore in " + dir);
+    }
+    int[] header = readHeader(indexFile);
+    return new HyperLogLogStore(dir, header[0], header[1]);
+  }
+
+  /**
+   * Opens the store in the directory, creating it if it does not exist.
+   * @param dir
+   *          - store directory
+   * @param p
+   *          - number of register index bits of the hyperloglogs
+   * @return store
+   * @throws IOException - thrown when the store cannot be read or created
+   * @throws IllegalArgumentException - thrown when the existing store has a
+   *           different p
+   */
+  public static HyperLogLogStore open(File dir, int p) throws IOException {
+    return open(dir, p, DEFAULT_SEGMENT_SHIFT);
+  }
+
+  static HyperLogLogStore open(File dir, int p, int segmentShift) throws IOException {
+    File indexFile = new File(dir, INDEX_FILE);
+    if (indexFile.exists()) {
+      int[] header = readHeader(indexFile);
+      if (header[0] != p) {
+        throw new IllegalArgumentException("HyperLogLogStore in " + dir + " has p: " + header[0]
+          + " Requested: " + p);
+      }
+      segmentShift = header[1];
+    }
+    return new HyperLogLogStore(dir, p, segmentShift);
+  }
+
+  // returns p and segment shift
+  private static int[] readHeader(File indexFile) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(indexFile, "r")) {
+      if (file.length() < HEADER_SIZE || file.readLong() != MAGIC) {
+        throw new IllegalArgumentException(indexFile + " is not a HyperLogLogStore index.");
+      }
+      int version = file.readInt();
+      if (version != VERSION) {
+        throw new IllegalArgumentException("Unsupported HyperLogLogStore version " + version);
+      }
+      int p = file.readInt();
+      int segmentShift = file.readInt();
+      return new int[] { p, segmentShift };
+    }
+  }
+
+  private HyperLogLogStore(File dir, int p, int segmentShift) throws IOException {
+    if (p < HLLConstants.MIN_P_VALUE || p > HLLConstants.MAX_P_VALUE) {
+      throw new IllegalArgumentException("p value should be between " + HLLConstants.MIN_P_VALUE
+        + " to " + HLLConstants.MAX_P_VALUE);
+    }
+    if (segmentShift < MIN_SEGMENT_SHIFT || segmentShift > 30) {
+      throw new IllegalArgumentException("Segment shift should be between " + MIN_SEGMENT_SHIFT
+        + " to 30");
+    }
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Cannot create directory " + dir);
+    }
+    this.dir = dir;
+    this.p = p;
+    this.m = 1 << p;
+    this.segmentShift = segmentShift;
+    // same threshold as HyperLogLog with bit packing enabled
+    this.encodingSwitchThreshold = ((m * 6) / 8) / 5;
+    this.slotSize = (m * REGISTER_BITS) / 8;
+    this.slotsPerSegment = (1 << segmentShift) / slotSize;
+    this.sparseCodec = new HLLSparseRegister(p, HLLConstants.P_PRIME_VALUE,
+      HLLConstants.Q_PRIME_VALUE);
+    this.registers = new byte[m];
+
+    File indexFile = new File(dir, INDEX_FILE);
+    boolean create = !indexFile.exists();
+    this.index = new MappedFile(indexFile, segmentShift);
+    this.dense = new MappedFile(new File(dir, DENSE_FILE), segmentShift);
+    this.sparse = new MappedFile(new File(dir, SPARSE_FILE), segmentShift);
+    if (create) {
+      index.putLong(0, MAGIC);
+      index.putInt(VERSION_OFFSET, VERSION);
+      index.putInt(P_OFFSET, p);
+      index.putInt(SEGMENT_SHIFT_OFFSET, segmentShift);
+      index.putLong(NUM_KEYS_OFFSET, 0);
+      index.putLong(CAPACITY_OFFSET, INITIAL_CAPACITY);
+      index.putLong(NUM_DENSE_SLOTS_OFFSET, 0);
+      index.putLong(SPARSE_END_OFFSET, SPARSE_START);
+    }
+    this.capacity = index.getLong(CAPACITY_OFFSET);
+  }
+
+  public int getNumRegisterIndexBits() {
+    return p;
+  }
+
+  /**
+   * @return number of hyperloglogs in the store
+   */
+  public long size() throws IOException {
+    return index.getLong(NUM_KEYS_OFFSET);
+  }
+
+  public boolean contains(long key) throws IOException {
+    return getRef(key) != 0;
+  }
+
+  public boolean contains(String id) throws IOException {
+    return contains(toKey(id));
+  }
+
+  /**
+   * Adds the hashcode to the hyperloglog of the key. The hyperloglog is
+   * created if it does not exist.
+   * @param key
+   *          - key of the hyperloglog
+   * @param hashcode
+   *          - hashcode to add
+   */
+  public void add(long key, long hashcode) throws IOException {
+    long ref = getOrCreateRef(key);
+    if (isDense(ref)) {
+      final int idx = (int) (hashcode & (m - 1));
+      final int lr = Long.numberOfTrailingZeros(hashcode >>> p) + 1;
+      setDenseRegister(getSlot(ref), idx, lr);
+    } else {
+      long newRef = addSparseEntry(ref, sparseCodec.getSparseEntry(hashcode));
+      if (newRef != ref) {
+        setRef(key, newRef);
+      }
+    }
+  }
+
+  public void add(String id, long hashcode) throws IOException {
+    add(toKey(id), hashcode);
+  }
+
+  /**
+   * Merges the hyperloglog to the hyperloglog of the key. The hyperloglog is
+   * created if it does not exist.
+   * @param key
+   *          - key of the hyperloglog
+   * @param hll
+   *          - hyperloglog to merge
+   * @throws IllegalArgumentException - thrown when the hyperloglog has smaller
+   *           p than the store
+   */
+  public void merge(long key, HyperLogLog hll) throws IOException {
+    if (hll.getNumRegisterIndexBits() < p) {
+      throw new IllegalArgumentException("HyperLogLog cannot merge a smaller p into a larger one."
+        + " Store p: " + p + " Provided: " + hll.toString());
+    }
+    if (hll.getNumRegisterIndexBits() != p) {
+      hll = hll.squash(p);
+    }
+
+    long ref = getOrCreateRef(key);
+    long newRef = ref;
+    if (hll.getEncoding().equals(EncodingType.DENSE)) {
+      if (!isDense(newRef)) {
+        newRef = toDense(newRef);
+      }
+      long slot = getSlot(newRef);
+      readDense(slot, registers);
+      hll.getHLLDenseRegister().maxInto(registers);
+      writeDense(slot, registers);
+    } else {
+      HLLSparseRegister sparseRegister = hll.getHLLSparseRegister();
+      int[] sparseList = sparseRegister.getSparseList();
+      int sparseListSize = sparseRegister.getSparseListSize();
+      for (int i = 0; i < sparseListSize; i++) {
+        newRef = addSparseEntry(newRef, sparseList[i]);
+      }
+    }
+    if (newRef != ref) {
+      setRef(key, newRef);
+    }
+  }
+
+  public void merge(String id, HyperLogLog hll) throws IOException {
+    merge(toKey(id), hll);
+  }
+
+  /**
+   * @param key
+   *          - key of the hyperloglog
+   * @return estimated cardinality of the hyperloglog, 0 if the key does not
+   *         exist
+   */
+  public long count(long key) throws IOException {
+    long ref = getRef(key);
+    if (ref == 0) {
+      return 0;
+    }
+    if (!isDense(ref)) {
+      // linear counting on pPrime bits of register index
+      int mPrime = 1 << HLLConstants.P_PRIME_VALUE;
+      return HyperLogLog.linearCount(mPrime, mPrime - sparse.getInt(getBlock(ref)));
+    }
+
+    if (scratch == null) {
+      scratch = HyperLogLog.builder().setNumRegisterIndexBits(p).setEncoding(EncodingType.DENSE)
+          .build();
+    }
+    HLLDenseRegister denseRegister = scratch.getHLLDenseRegister();
+    readDense(getSlot(ref), denseRegister.getRegister());
+    denseRegister.maxRegisterValue = 0;
+    denseRegister.recomputeSumAndZeroes();
+    // invalidate the count cached for the previous key
+    scratch.setCount(-1);
+    return scratch.count();
+  }
+
+  public long count(String id) throws IOException {
+    return count(toKey(id));
+  }
+
+  /**
+   * @param key
+   *          - key of the hyperloglog
+   * @return copy of the hyperloglog, null if the key does not exist
+   */
+  public HyperLogLog get(long key) throws IOException {
+    long ref = getRef(key);
+    if (ref == 0) {
+      return null;
+    }
+    if (isDense(ref)) {
+      HyperLogLog hll = HyperLogLog.builder().setNumRegisterIndexBits(p)
+          .setEncoding(EncodingType.DENSE).build();
+      byte[] register = new byte[m];
+      readDense(getSlot(ref), register);
+      hll.setHLLDenseRegister(register);
+      return hll;
+    }
+
+    HyperLogLog hll = HyperLogLog.builder().setNumRegisterIndexBits(p)
+        .setEncoding(EncodingType.SPARSE).build();
+    long block = getBlock(ref);
+    int[] sparseList = new int[sparse.getInt(block)];
+    for (int i = 0; i < sparseList.length; i++) {
+      sparseList[i] = sparse.getInt(getEntryPos(block, i));
+    }
+    hll.setHLLSparseRegister(sparseList);
+    return hll;
+  }
+
+  public HyperLogLog get(String id) throws IOException {
+    return get(toKey(id));
+  }
+
+  /**
+   * Writes all updates to the storage device.
+   */
+  public void flush() {
+    sparse.force();
+    dense.force();
+    index.force();
+  }
+
+  @Override
+  public void close() throws IOException {
+    flush();
+    sparse.close();
+    dense.close();
+    index.close();
+  }
+
+  private static long toKey(String id) {
+    return Murmur3.hash64(id.getBytes(StandardCharsets.UTF_8));
+  }
+
+  // ---------------------------------------------------------------------------
+  // index
+
+  private static long mix(long key) {
+    long h = key * 0x9e3779b97f4a7c15L;
+    return h ^ (h >>> 32);
+  }
+
+  // position of the entry of the key or of the empty entry where it would be
+  // inserted
+  private static long findEntry(MappedFile index, long capacity, long key) throws IOException {
+    long mask = capacity - 1;
+    long i = mix(key) & mask;
+    while (true) {
+      long pos = HEADER_SIZE + i * ENTRY_SIZE;
+      if (index.getLong(pos + 8) == 0 || index.getLong(pos) == key) {
+        return pos;
+      }
+      i = (i + 1) & mask;
+    }
+  }
+
+  private long getRef(long key) throws IOException {
+    return index.getLong(findEntry(index, capacity, key) + 8);
+  }
+
+  private void setRef(long key, long ref) throws IOException {
+    index.putLong(findEntry(index, capacity, key) + 8, ref);
+  }
+
+  private long getOrCreateRef(long key) throws IOException {
+    long pos = findEntry(index, capacity, key);
+    long ref = index.getLong(pos + 8);
+    if (ref != 0) {
+      return ref;
+    }
+
+    ref = allocateSparse(0);
+    index.putLong(pos, key);
+    index.putLong(pos + 8, ref);
+    long numKeys = index.getLong(NUM_KEYS_OFFSET) + 1;
+    index.putLong(NUM_KEYS_OFFSET, numKeys);
+    if (numKeys * 2 > capacity) {
+      resize();
+    }
+    return ref;
+  }
+
+  /**
+   * Rehashes the index to a new file of twice the capacity which then replaces
+   * the current index file. The current index stays in use if the new file
+   * cannot be written or moved.
+   */
+  private void resize() throws IOException {
+    long newCapacity = capacity * 2;
+    File indexFile = new File(dir, INDEX_FILE);
+    File newIndexFile = new File(dir, INDEX_FILE + ".tmp");
+    Files.deleteIfExists(newIndexFile.toPath());
+    MappedFile newIndex = new MappedFile(newIndexFile, segmentShift);
+    try {
+      for (int pos = 0; pos < HEADER_SIZE; pos += 8) {
+        newIndex.putLong(pos, index.getLong(pos));
+      }
+      newIndex.putLong(CAPACITY_OFFSET, newCapacity);
+      for (long i = 0; i < capacity; i++) {
+        long pos = HEADER_SIZE + i * ENTRY_SIZE;
+        long ref = index.getLong(pos + 8);
+        if (ref != 0) {
+          long key = index.getLong(pos);
+          long newPos = findEntry(newIndex, newCapacity, key);
+          newIndex.putLong(newPos, key);
+          newIndex.putLong(newPos + 8, ref);
+        }
+      }
+      newIndex.force();
+      Files.move(newIndexFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | RuntimeException e) {
+      newIndex.close();
+      Files.deleteIfExists(newIndexFile.toPath());
+      throw e;
+    }
+    index.close();
+    index = newIndex;
+    capacity = newCapacity;
+  }
+
+  private static boolean isDense(long ref) {
+    return (ref & 1) != 0;
+  }
+
+  // ---------------------------------------------------------------------------
+  // dense slots
+
+  private static long getSlot(long ref) {
+    return ref >>> 1;
+  }
+
+  private long getSlotPos(long slot) {
+    return ((slot / slotsPerSegment) << segmentShift) + (slot % slotsPerSegment) * slotSize;
+  }
+
+  private long allocateDense() throws IOException {
+    // slots are never freed, so a new slot is always zero filled
+    long slot = index.getLong(NUM_DENSE_SLOTS_OFFSET);
+    index.putLong(NUM_DENSE_SLOTS_OFFSET, slot + 1);
+    return slot;
+  }
+
+  /**
+   * Updates the register if the value is larger. Registers are packed MSB
+   * first, so register idx starts at bit 6 * idx of the slot and spans at
+   * most 2 bytes.
+   */
+  private void setDenseRegister(long slot, int idx, int value) throws IOException {
+    long pos = getSlotPos(slot);
+    ByteBuffer segment = dense.segment(pos, slotSize);
+    int bit = idx * REGISTER_BITS;
+    int offset = dense.offset(pos) + (bit >>> 3);
+    int shift = 16 - REGISTER_BITS - (bit & 7);
+    if (shift >= 8) {
+      // register is within a single byte
+      shift -= 8;
+      int b = segment.get(offset) & 0xff;
+      if (value > ((b >>> shift) & REGISTER_MASK)) {
+        segment.put(offset, (byte) ((b & ~(REGISTER_MASK << shift)) | (value << shift)));
+      }
+    } else {
+      int w = ((segment.get(offset) & 0xff) << 8) | (segment.get(offset + 1) & 0xff);
+      if (value > ((w >>> shift) & REGISTER_MASK)) {
+        w = (w & ~(REGISTER_MASK << shift)) | (value << shift);
+        segment.put(offset, (byte) (w >>> 8));
+        segment.put(offset + 1, (byte) w);
+      }
+    }
+  }
+
+  private void readDense(long slot, byte[] register) throws IOException {
+    long pos = getSlotPos(slot);
+    HyperLogLogUtils.unpackHLLRegister(dense.segment(pos, slotSize), dense.offset(pos), register,
+      REGISTER_BITS);
+  }
+
+  private void writeDense(long slot, byte[] register) throws IOException {
+    long pos = getSlotPos(slot);
+    ByteBuffer segment = dense.segment(pos, slotSize).duplicate();
+    segment.position(dense.offset(pos));
+    HyperLogLogUtils.bitpackHLLRegister(segment, register, REGISTER_BITS);
+  }
+
+  // ---------------------------------------------------------------------------
+  // sparse blocks
+
+  private static long getBlock(long ref) {
+    return ref >>> 6;
+  }
+
+  private static int getCapacityClass(long ref) {
+    return (int) ((ref >>> 1) & 31);
+  }
+
+  private static long toSparseRef(long block, int capacityClass) {
+    return ((block << 5) | capacityClass) << 1;
+  }
+
+  private static int getCapacity(int capacityClass) {
+    return MIN_SPARSE_CAPACITY << capacityClass;
+  }
+
+  private static long getEntryPos(long block, int i) {
+    return block + 4 + 4L * i;
+  }
+
+  private long allocateSparse(int capacityClass) throws IOException {
+    long freeList = FREE_LISTS_OFFSET + 8 * capacityClass;
+    long block = index.getLong(freeList);
+    if (block != 0) {
+      // reuse a freed block
+      index.putLong(freeList, sparse.getLong(block));
+    } else {
+      // blocks do not straddle segments
+      int blockSize = 4 + 4 * getCapacity(capacityClass);
+      block = index.getLong(SPARSE_END_OFFSET);
+      if (sparse.offset(block) + blockSize > sparse.getSegmentSize()) {
+        block = ((block >>> segmentShift) + 1) << segmentShift;
+      }
+      index.putLong(SPARSE_END_OFFSET, block + blockSize);
+    }
+    sparse.putInt(block, 0);
+    return toSparseRef(block, capacityClass);
+  }
+
+  private void freeSparse(long ref) throws IOException {
+    long freeList = FREE_LISTS_OFFSET + 8 * getCapacityClass(ref);
+    long block = getBlock(ref);
+    sparse.putLong(block, index.getLong(freeList));
+    index.putLong(freeList, block);
+  }
+
+  /**
+   * Adds the sparse list entry to the hyperloglog.
+   * @return new reference of the hyperloglog if it had to be moved
+   */
+  private long addSparseEntry(long ref, int entry) throws IOException {
+    if (isDense(ref)) {
+      int idx = (entry >>> HLLConstants.Q_PRIME_VALUE) & (m - 1);
+      setDenseRegister(getSlot(ref), idx, entry & REGISTER_MASK);
+      return ref;
+    }
+
+    long block = getBlock(ref);
+    int size = sparse.getInt(block);
+
+    // binary search for the register index
+    final int key = entry >>> HLLConstants.Q_PRIME_VALUE;
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final int midEntry = sparse.getInt(getEntryPos(block, mid));
+      final int midKey = midEntry >>> HLLConstants.Q_PRIME_VALUE;
+      if (midKey < key) {
+        low = mid + 1;
+      } else if (midKey > key) {
+        high = mid - 1;
+      } else {
+        // retain only the largest value for a register index
+        if (entry > midEntry) {
+          sparse.putInt(getEntryPos(block, mid), entry);
+        }
+        return ref;
+      }
+    }
+
+    if (size + 1 > encodingSwitchThreshold) {
+      long denseRef = toDense(ref);
+      return addSparseEntry(denseRef, entry);
+    }
+
+    int capacityClass = getCapacityClass(ref);
+    if (size == getCapacity(capacityClass)) {
+      // move to a block of twice the capacity with the entry inserted
+      long newRef = allocateSparse(capacityClass + 1);
+      long newBlock = getBlock(newRef);
+      for (int i = 0; i < low; i++) {
+        sparse.putInt(getEntryPos(newBlock, i), sparse.getInt(getEntryPos(block, i)));
+      }
+      sparse.putInt(getEntryPos(newBlock, low), entry);
+      for (int i = low; i < size; i++) {
+        sparse.putInt(getEntryPos(newBlock, i + 1), sparse.getInt(getEntryPos(block, i)));
+      }
+      sparse.putInt(newBlock, size + 1);
+      freeSparse(ref);
+      return newRef;
+    }
+
+    for (int i = size; i > low; i--) {
+      sparse.putInt(getEntryPos(block, i), sparse.getInt(getEntryPos(block, i - 1)));
+    }
+    sparse.putInt(getEntryPos(block, low), entry);
+    sparse.putInt(block, size + 1);
+    return ref;
+  }
+
+  /**
+   * Moves the sparse list to a new dense slot.
+   * @return reference of the dense slot
+   */
+  private long toDense(long ref) throws IOException {
+    long block = getBlock(ref);
+    int size = sparse.getInt(block);
+    Arrays.fill(registers, (byte) 0);
+    for (int i = 0; i < size; i++) {
+      int entry = sparse.getInt(getEntryPos(block, i));
+      int idx = (entry >>> HLLConstants.Q_PRIME_VALUE) & (m - 1);
+      byte value = (byte) (entry & REGISTER_MASK);
+      if (value > registers[idx]) {
+        registers[idx] = value;
+      }
+    }
+    long slot = allocateDense();
+    writeDense(slot, registers);
+    freeSparse(ref);
+    return (slot << 1) | 1;
+  }
+}
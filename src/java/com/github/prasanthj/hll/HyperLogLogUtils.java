@@ -17,14 +17,15 @@
 package com.github.prasanthj.hll;
 
 import com.github.prasanthj.hll.HyperLogLog.EncodingType;
-import it.unimi.dsi.fastutil.ints.Int2ByteSortedMap;
 
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
-import java.util.Map;
 
 /**
  * HyperLogLog serialization utilities.
@@ -33,6 +34,12 @@ public class HyperLogLogUtils {
 
   public static final byte[] MAGIC = new byte[] { 'H', 'L', 'L' };
 
+  // max number of bytes read at once when reading the sparse register
+  private static final int READ_BUFFER_SIZE = 8192;
+
+  // spare bit of the fourth header byte that marks WeightedHyperLogLog
+  private static final int WEIGHTED_FLAG = 1 << 3;
+
   /**
    * HyperLogLog is serialized using the following format
    * 
@@ -45,7 +52,7 @@ public class HyperLogLogUtils {
    * <b>4 byte header</b> is encoded like below
    * 3 bytes - HLL magic string to identify serialized stream
    * 4 bits  - p (number of bits to be used as register index)
-   * 1       - spare bit (not used)
+   * 1       - weighted bit (1 - WeightedHyperLogLog, 0 - HyperLogLog)
    * 3 bits  - encoding (000 - sparse, 001..110 - n bit packing, 111 - no bit packing)
    * 
    * Followed by header are 3 fields that are required for reconstruction
@@ -64,65 +71,165 @@ public class HyperLogLogUtils {
    */
   public static void serializeHLL(OutputStream out, HyperLogLog hll) throws IOException {
 
+    // serialize to a buffer of the exact size and write it out at once
+    ByteBuffer buffer = ByteBuffer.allocate(serializedSize(hll));
+    serializeHLL(buffer, hll);
+    out.write(buffer.array(), 0, buffer.position());
+    out.flush();
+  }
+
+  /**
+   * Same as serializeHLL(OutputStream, HyperLogLog) but writes to the buffer
+   * starting at its current position. The position is advanced by
+   * serializedSize(hll) bytes.
+   * @param buffer
+   *          - heap or direct buffer to write to
+   * @param hll
+   *          - hyperloglog that needs to be serialized
+   * @throws java.nio.BufferOverflowException - thrown when the remaining space
+   *           in the buffer is less than serializedSize(hll)
+   */
+  public static void serializeHLL(ByteBuffer buffer, HyperLogLog hll) {
+    if (hll.getEncoding().equals(EncodingType.DENSE)) {
+      serialize(buffer, hll.getNumRegisterIndexBits(), hll.count(), 0, hll.getHLLDenseRegister(),
+          null);
+    } else {
+      serialize(buffer, hll.getNumRegisterIndexBits(), hll.count(), 0, null,
+          hll.getHLLSparseRegister());
+    }
+  }
+
+  /**
+   * Same as serializeHLL(OutputStream, HyperLogLog) for weighted hyperloglogs.
+   * The format is the same except for the weighted bit in the header.
+   * @param out
+   *          - output stream to write to
+   * @param whll
+   *          - weighted hyperloglog that needs to be serialized
+   * @throws IOException - thrown by OutputStream
+   */
+  public static void serializeWHLL(OutputStream out, WeightedHyperLogLog whll) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(serializedSize(whll));
+    serializeWHLL(buffer, whll);
+    out.write(buffer.array(), 0, buffer.position());
+    out.flush();
+  }
+
+  /**
+   * Same as serializeHLL(ByteBuffer, HyperLogLog) for weighted hyperloglogs.
+   * @param buffer
+   *          - heap or direct buffer to write to
+   * @param whll
+   *          - weighted hyperloglog that needs to be serialized
+   * @throws java.nio.BufferOverflowException - thrown when the remaining space
+   *           in the buffer is less than serializedSize(whll)
+   */
+  public static void serializeWHLL(ByteBuffer buffer, WeightedHyperLogLog whll) {
+    if (whll.getEncoding() == WeightedHyperLogLog.EncodingType.DENSE) {
+      serialize(buffer, whll.getNumRegisterIndexBits(), whll.count(), WEIGHTED_FLAG,
+          whll.getHLLDenseRegister(), null);
+    } else {
+      serialize(buffer, whll.getNumRegisterIndexBits(), whll.count(), WEIGHTED_FLAG, null,
+          whll.getHLLSparseRegister());
+    }
+  }
+
+  /**
+   * Writes the header followed by the dense registers if denseRegister is not
+   * null, else by the sparse list.
+   */
+  private static void serialize(ByteBuffer buffer, int p, long estCount, int flags,
+      HLLDenseRegister denseRegister, HLLSparseRegister sparseRegister) {
+
     // write header
-    out.write(MAGIC);
-    int fourthByte = 0;
-    int p = hll.getNumRegisterIndexBits();
-    fourthByte = (p & 0xff) << 4;
-
-    int bitWidth = 0;
-    EncodingType enc = hll.getEncoding();
-
-    // determine bit width for bitpacking and encode it in header
-    if (enc.equals(EncodingType.DENSE)) {
-      int lzr = hll.getHLLDenseRegister().getMaxRegisterValue();
-      bitWidth = getBitWidth(lzr);
-
-      // the max value of number of zeroes for 64 bit hash can be encoded using
-      // only 6 bits. So we will disable bit packing for any values >6
-      if (bitWidth > 6) {
-        fourthByte |= 7;
-        bitWidth = 8;
-      } else {
-        fourthByte |= (bitWidth & 7);
-      }
+    buffer.put(MAGIC);
+    int bitWidth = getBitWidth(denseRegister);
+    int fourthByte = ((p & 0xff) << 4) | flags;
+
+    // encode bit width for bitpacking in header
+    if (bitWidth == 8) {
+      fourthByte |= 7;
+    } else {
+      fourthByte |= (bitWidth & 7);
     }
 
     // write fourth byte of header
-    out.write(fourthByte);
+    buffer.put((byte) fourthByte);
 
     // write estimated count
-    long estCount = hll.count();
-    writeVulong(out, estCount);
+    writeVulong(buffer, estCount);
 
     // serialize dense/sparse registers. Dense registers are bitpacked whereas
     // sparse registers are delta and variable length encoded
-    if (enc.equals(EncodingType.DENSE)) {
-      byte[] register = hll.getHLLDenseRegister().getRegister();
-      bitpackHLLRegister(out, register, bitWidth);
-    } else if (enc.equals(EncodingType.SPARSE)) {
-      Map<Integer, Byte> sparseMap = hll.getHLLSparseRegister().getSparseMap();
+    if (denseRegister != null) {
+      byte[] register = denseRegister.getRegister();
+      bitpackHLLRegister(buffer, register, bitWidth);
+    } else {
+      int[] sparseList = sparseRegister.getSparseList();
+      int sparseListSize = sparseRegister.getSparseListSize();
 
-      // write the number of elements in sparse map (required for
+      // write the number of elements in sparse list (required for
       // reconstruction)
-      writeVulong(out, sparseMap.size());
+      writeVulong(buffer, sparseListSize);
 
-      // compute deltas and write the values as varints
+      // compute deltas and write the values as varints. Sparse list entries
+      // are already encoded as (key << Q_PRIME_VALUE) | value
       int prev = 0;
-      for (Map.Entry<Integer, Byte> entry : sparseMap.entrySet()) {
-        if (prev == 0) {
-          prev = (entry.getKey() << HLLConstants.Q_PRIME_VALUE) | entry.getValue();
-          writeVulong(out, prev);
-        } else {
-          int curr = (entry.getKey() << HLLConstants.Q_PRIME_VALUE) | entry.getValue();
-          int delta = curr - prev;
-          writeVulong(out, delta);
-          prev = curr;
-        }
+      for (int i = 0; i < sparseListSize; i++) {
+        int curr = sparseList[i];
+        writeVulong(buffer, curr - prev);
+        prev = curr;
       }
     }
   }
 
+  /**
+   * @param hll
+   *          - hyperloglog
+   * @return exact number of bytes serializeHLL() writes for the hyperloglog
+   */
+  public static int serializedSize(HyperLogLog hll) {
+    if (hll.getEncoding().equals(EncodingType.DENSE)) {
+      return serializedSize(hll.getNumRegisterIndexBits(), hll.count(), hll.getHLLDenseRegister(),
+          null);
+    }
+    return serializedSize(hll.getNumRegisterIndexBits(), hll.count(), null,
+        hll.getHLLSparseRegister());
+  }
+
+  /**
+   * @param whll
+   *          - weighted hyperloglog
+   * @return exact number of bytes serializeWHLL() writes for the weighted
+   *         hyperloglog
+   */
+  public static int serializedSize(WeightedHyperLogLog whll) {
+    if (whll.getEncoding() == WeightedHyperLogLog.EncodingType.DENSE) {
+      return serializedSize(whll.getNumRegisterIndexBits(), whll.count(),
+          whll.getHLLDenseRegister(), null);
+    }
+    return serializedSize(whll.getNumRegisterIndexBits(), whll.count(), null,
+        whll.getHLLSparseRegister());
+  }
+
+  private static int serializedSize(int p, long estCount, HLLDenseRegister denseRegister,
+      HLLSparseRegister sparseRegister) {
+    int size = MAGIC.length + 1 + getVulongSize(estCount);
+    if (denseRegister != null) {
+      size += getPackedSize(1 << p, getBitWidth(denseRegister));
+    } else {
+      int[] sparseList = sparseRegister.getSparseList();
+      int sparseListSize = sparseRegister.getSparseListSize();
+      size += getVulongSize(sparseListSize);
+      int prev = 0;
+      for (int i = 0; i < sparseListSize; i++) {
+        size += getVulongSize(sparseList[i] - prev);
+        prev = sparseList[i];
+      }
+    }
+    return size;
+  }
+
   /**
    * Refer serializeHLL() for format of serialization. This funtions
    * deserializes the serialized hyperloglogs
@@ -134,61 +241,104 @@ public class HyperLogLogUtils {
   public static HyperLogLog deserializeHLL(InputStream in) throws IOException {
     checkMagicString(in);
     int fourthByte = in.read() & 0xff;
-    int p = fourthByte >>> 4;
+    checkWeighted(fourthByte, false);
 
-    // read type of encoding
-    int enc = fourthByte & 7;
-    EncodingType encoding = null;
-    int bitSize = 0;
-    if (enc == 0) {
-      encoding = EncodingType.SPARSE;
-    } else if (enc > 0 && enc < 7) {
-      bitSize = enc;
-      encoding = EncodingType.DENSE;
+    // estimated count
+    long estCount = readVulong(in);
+
+    HyperLogLog result = newHyperLogLog(fourthByte);
+    if (result.getEncoding().equals(EncodingType.SPARSE)) {
+      result.setHLLSparseRegister(readSparseList(in));
     } else {
-      // bit packing disabled
-      bitSize = 8;
-      encoding = EncodingType.DENSE;
+      result.setHLLDenseRegister(readDenseRegister(in, fourthByte));
     }
 
+    result.setCount(estCount);
+
+    return result;
+  }
+
+  /**
+   * Same as deserializeHLL(InputStream) but reads from the buffer starting at
+   * its current position. The position is advanced past the hyperloglog.
+   * @param buffer
+   *          - heap or direct buffer to read from
+   * @return deserialized hyperloglog
+   * @throws java.nio.BufferUnderflowException - thrown when the buffer ends
+   *           before the hyperloglog
+   */
+  public static HyperLogLog deserializeHLL(ByteBuffer buffer) {
+    checkMagicString(buffer);
+    int fourthByte = buffer.get() & 0xff;
+    checkWeighted(fourthByte, false);
+
     // estimated count
-    long estCount = readVulong(in);
+    long estCount = readVulong(buffer);
 
-    HyperLogLog result = null;
-    if (encoding.equals(EncodingType.SPARSE)) {
-      result = HyperLogLog.builder().setNumRegisterIndexBits(p)
-          .setEncoding(EncodingType.SPARSE).build();
-      int numRegisterEntries = (int) readVulong(in);
-      int[] reg = new int[numRegisterEntries];
-      int prev = 0;
+    HyperLogLog result = newHyperLogLog(fourthByte);
+    if (result.getEncoding().equals(EncodingType.SPARSE)) {
+      result.setHLLSparseRegister(readSparseList(buffer));
+    } else {
+      int m = 1 << result.getNumRegisterIndexBits();
+      result.setHLLDenseRegister(unpackHLLRegister(buffer, m, getBitSize(fourthByte)));
+    }
 
-      // reconstruct the sparse map from delta encoded and varint input stream
-      if (numRegisterEntries > 0) {
-        prev = (int) readVulong(in);
-        reg[0] = prev;
-      }
-      int delta = 0;
-      int curr = 0;
-      for (int i = 1; i < numRegisterEntries; i++) {
-        delta = (int) readVulong(in);
-        curr = prev + delta;
-        reg[i] = curr;
-        prev = curr;
-      }
-      result.setHLLSparseRegister(reg);
+    result.setCount(estCount);
+
+    return result;
+  }
+
+  /**
+   * Deserializes weighted hyperloglogs serialized by serializeWHLL().
+   * @param in
+   *          - input stream
+   * @return deserialized weighted hyperloglog
+   * @throws IOException - thrown by InputStream
+   */
+  public static WeightedHyperLogLog deserializeWHLL(InputStream in) throws IOException {
+    checkMagicString(in);
+    int fourthByte = in.read() & 0xff;
+    checkWeighted(fourthByte, true);
+
+    // estimated count
+    long estCount = readVulong(in);
+
+    WeightedHyperLogLog result = newWeightedHyperLogLog(fourthByte);
+    if (result.getEncoding() == WeightedHyperLogLog.EncodingType.SPARSE) {
+      result.setHLLSparseRegister(readSparseList(in));
     } else {
+      result.setHLLDenseRegister(readDenseRegister(in, fourthByte));
+    }
 
-      // explicitly disable bit packing
-      if (bitSize == 8) {
-        result = HyperLogLog.builder().setNumRegisterIndexBits(p)
-            .setEncoding(EncodingType.DENSE).enableBitPacking(false).build();
-      } else {
-        result = HyperLogLog.builder().setNumRegisterIndexBits(p)
-            .setEncoding(EncodingType.DENSE).enableBitPacking(true).build();
-      }
-      int m = 1 << p;
-      byte[] register = unpackHLLRegister(in, m, bitSize);
-      result.setHLLDenseRegister(register);
+    result.setCount(estCount);
+
+    return result;
+  }
+
+  /**
+   * Same as deserializeWHLL(InputStream) but reads from the buffer starting at
+   * its current position. The position is advanced past the weighted
+   * hyperloglog.
+   * @param buffer
+   *          - heap or direct buffer to read from
+   * @return deserialized weighted hyperloglog
+   * @throws java.nio.BufferUnderflowException - thrown when the buffer ends
+   *           before the weighted hyperloglog
+   */
+  public static WeightedHyperLogLog deserializeWHLL(ByteBuffer buffer) {
+    checkMagicString(buffer);
+    int fourthByte = buffer.get() & 0xff;
+    checkWeighted(fourthByte, true);
+
+    // estimated count
+    long estCount = readVulong(buffer);
+
+    WeightedHyperLogLog result = newWeightedHyperLogLog(fourthByte);
+    if (result.getEncoding() == WeightedHyperLogLog.EncodingType.SPARSE) {
+      result.setHLLSparseRegister(readSparseList(buffer));
+    } else {
+      int m = 1 << result.getNumRegisterIndexBits();
+      result.setHLLDenseRegister(unpackHLLRegister(buffer, m, getBitSize(fourthByte)));
     }
 
     result.setCount(estCount);
@@ -196,99 +346,233 @@ public class HyperLogLogUtils {
     return result;
   }
 
-  private static void bitpackHLLRegister(OutputStream out, byte[] register, int bitWidth)
-      throws IOException {
-    int bitsLeft = 8;
-    byte current = 0;
+  /**
+   * @param fourthByte
+   *          - fourth byte of the header
+   * @return empty hyperloglog with p and encoding from the header
+   */
+  private static HyperLogLog newHyperLogLog(int fourthByte) {
+    int p = fourthByte >>> 4;
+    int bitSize = getBitSize(fourthByte);
+    if (bitSize == 0) {
+      return HyperLogLog.builder().setNumRegisterIndexBits(p)
+          .setEncoding(EncodingType.SPARSE).build();
+    }
 
-    if (bitWidth == 8) {
-      fastPathWrite(out, register);
-      return;
+    // explicitly disable bit packing
+    return HyperLogLog.builder().setNumRegisterIndexBits(p)
+        .setEncoding(EncodingType.DENSE).enableBitPacking(bitSize != 8).build();
+  }
+
+  /**
+   * @param fourthByte
+   *          - fourth byte of the header
+   * @return empty weighted hyperloglog with p and encoding from the header
+   */
+  private static WeightedHyperLogLog newWeightedHyperLogLog(int fourthByte) {
+    int p = fourthByte >>> 4;
+    int bitSize = getBitSize(fourthByte);
+    if (bitSize == 0) {
+      return WeightedHyperLogLog.builder().setNumRegisterIndexBits(p)
+          .setEncoding(WeightedHyperLogLog.EncodingType.SPARSE).build();
     }
 
-    // write the blob
-    for (byte value : register) {
-      int bitsToWrite = bitWidth;
-      while (bitsToWrite > bitsLeft) {
-        // add the bits to the bottom of the current word
-        current |= value >>> (bitsToWrite - bitsLeft);
-        // subtract out the bits we just added
-        bitsToWrite -= bitsLeft;
-        // zero out the bits above bitsToWrite
-        value &= (1 << bitsToWrite) - 1;
-        out.write(current);
-        current = 0;
-        bitsLeft = 8;
-      }
-      bitsLeft -= bitsToWrite;
-      current |= value << bitsLeft;
-      if (bitsLeft == 0) {
-        out.write(current);
-        current = 0;
-        bitsLeft = 8;
-      }
+    // explicitly disable bit packing
+    return WeightedHyperLogLog.builder().setNumRegisterIndexBits(p)
+        .setEncoding(WeightedHyperLogLog.EncodingType.DENSE).enableBitPacking(bitSize != 8).build();
+  }
+
+  /**
+   * @param fourthByte
+   *          - fourth byte of the header
+   * @return true if the header is of a weighted hyperloglog
+   */
+  static boolean isWeighted(int fourthByte) {
+    return (fourthByte & WEIGHTED_FLAG) != 0;
+  }
+
+  private static void checkWeighted(int fourthByte, boolean weighted) {
+    if (isWeighted(fourthByte) != weighted) {
+      throw new IllegalArgumentException(weighted
+          ? "The input is not a WeightedHyperLogLog. Use deserializeHLL()."
+          : "The input is a WeightedHyperLogLog. Use deserializeWHLL().");
     }
+  }
 
-    out.flush();
+  /**
+   * @param fourthByte
+   *          - fourth byte of the header
+   * @return number of bits per register for DENSE encoding, 0 for SPARSE
+   */
+  static int getBitSize(int fourthByte) {
+    // read type of encoding
+    int enc = fourthByte & 7;
+    if (enc == 7) {
+      // bit packing disabled
+      return 8;
+    }
+    return enc;
+  }
+
+  static int getPackedSize(int m, int bitSize) {
+    return (int) (((long) m * bitSize) / 8);
   }
 
-  private static void fastPathWrite(OutputStream out, byte[] register) throws IOException {
-    for (byte b : register) {
-      out.write(b);
+  /**
+   * Reads the delta encoded sparse list.
+   * @return sparse list entries
+   */
+  private static int[] readSparseList(InputStream in) throws IOException {
+    int numRegisterEntries = (int) readVulong(in);
+    int[] reg = new int[numRegisterEntries];
+    readVulongs(in, reg, numRegisterEntries);
+    for (int i = 1; i < numRegisterEntries; i++) {
+      reg[i] += reg[i - 1];
+    }
+    return reg;
+  }
+
+  private static int[] readSparseList(ByteBuffer buffer) {
+    int numRegisterEntries = (int) readVulong(buffer);
+    int[] reg = new int[numRegisterEntries];
+    int prev = 0;
+    for (int i = 0; i < numRegisterEntries; i++) {
+      prev += (int) readVulong(buffer);
+      reg[i] = prev;
+    }
+    return reg;
+  }
+
+  /**
+   * Reads the bitpacked dense registers.
+   * @return unpacked registers
+   */
+  private static byte[] readDenseRegister(InputStream in, int fourthByte) throws IOException {
+    int m = 1 << (fourthByte >>> 4);
+    int bitSize = getBitSize(fourthByte);
+    byte[] packed = new byte[getPackedSize(m, bitSize)];
+    readFully(in, packed, 0, packed.length);
+    return unpackHLLRegister(ByteBuffer.wrap(packed), m, bitSize);
+  }
+
+  /**
+   * Bit width used for bitpacking the registers. The max value of number of
+   * zeroes for 64 bit hash can be encoded using only 6 bits. So bit packing is
+   * disabled (8 bits) for any values &gt;6. SPARSE registers are not bitpacked.
+   * @param denseRegister
+   *          - dense registers, null for SPARSE encoding
+   * @return bit width
+   */
+  private static int getBitWidth(HLLDenseRegister denseRegister) {
+    if (denseRegister == null) {
+      return 0;
+    }
+    int bitWidth = getBitWidth(denseRegister.getMaxRegisterValue());
+    return bitWidth > 6 ? 8 : bitWidth;
+  }
+
+  static void bitpackHLLRegister(ByteBuffer buffer, byte[] register, int bitWidth) {
+    if (bitWidth == 8) {
+      buffer.put(register);
+      return;
+    }
+
+    // values are appended to the LSBs of the accumulator and complete bytes
+    // are written from its MSBs
+    int current = 0;
+    int numBits = 0;
+    for (byte value : register) {
+      current = (current << bitWidth) | (value & ((1 << bitWidth) - 1));
+      numBits += bitWidth;
+      if (numBits >= 8) {
+        numBits -= 8;
+        buffer.put((byte) (current >>> numBits));
+      }
     }
   }
 
   /**
    * Unpack the bitpacked HyperLogLog register.
-   * @param in
-   *          - input stream
+   * @param buffer
+   *          - bitpacked register starting at the current position. The
+   *            position is advanced past the register.
    * @param length
-   *          - serialized length
+   *          - number of registers
+   * @param bitSize
+   *          - number of bits per register
    * @return unpacked HLL register
-   * @throws IOException
    */
-  private static byte[] unpackHLLRegister(InputStream in, int length, int bitSize)
-      throws IOException {
-    int mask = (1 << bitSize) - 1;
-    int bitsLeft = 8;
-
+  private static byte[] unpackHLLRegister(ByteBuffer buffer, int length, int bitSize) {
+    byte[] output = new byte[length];
     if (bitSize == 8) {
-      return fastPathRead(in, length);
+      buffer.get(output);
+      return output;
     }
+    unpackHLLRegister(buffer, buffer.position(), output, bitSize);
+    buffer.position(buffer.position() + getPackedSize(length, bitSize));
+    return output;
+  }
 
-    byte current = (byte) (0xff & in.read());
-
-    byte[] output = new byte[length];
-    for (int i = 0; i < output.length; i++) {
-      byte result = 0;
-      int bitsLeftToRead = bitSize;
-      while (bitsLeftToRead > bitsLeft) {
-        result <<= bitsLeft;
-        result |= current & ((1 << bitsLeft) - 1);
-        bitsLeftToRead -= bitsLeft;
-        current = (byte) (0xff & in.read());
-        bitsLeft = 8;
+  /**
+   * Unpack the bitpacked HyperLogLog register without changing the position
+   * of the buffer. Every 8 registers take exactly bitSize bytes, so 8
+   * registers are unpacked from a single big endian word read from the
+   * buffer.
+   * @param buffer
+   *          - buffer containing the bitpacked register
+   * @param offset
+   *          - absolute index of the bitpacked register in the buffer
+   * @param output
+   *          - array to unpack the registers to, its length is the number of
+   *            registers
+   * @param bitSize
+   *          - number of bits per register
+   */
+  static void unpackHLLRegister(ByteBuffer buffer, int offset, byte[] output, int bitSize) {
+    int length = output.length;
+    if (buffer.limit() - offset < getPackedSize(length, bitSize)) {
+      throw new BufferUnderflowException();
+    }
+    int mask = (1 << bitSize) - 1;
+    int pos = offset;
+    boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+    int i = 0;
+
+    // 8 bytes can be read at once as long as they are within the buffer
+    int wordEnd = buffer.limit() - Long.BYTES;
+    for (; i + 8 <= length && pos <= wordEnd; i += 8, pos += bitSize) {
+      long word = buffer.getLong(pos);
+      if (!bigEndian) {
+        word = Long.reverseBytes(word);
       }
-      if (bitsLeftToRead > 0) {
-        result <<= bitsLeftToRead;
-        bitsLeft -= bitsLeftToRead;
-        result |= (current >>> bitsLeft) & ((1 << bitsLeftToRead) - 1);
+      unpack8(word >>> (Long.SIZE - 8 * bitSize), output, i, bitSize, mask);
+    }
+
+    // tail that is too close to the end of the buffer for a full word
+    for (; i + 8 <= length; i += 8, pos += bitSize) {
+      long word = 0;
+      for (int b = 0; b < bitSize; b++) {
+        word = (word << 8) | (buffer.get(pos + b) & 0xff);
       }
-      output[i] = (byte) (result & mask);
+      unpack8(word, output, i, bitSize, mask);
     }
-    return output;
   }
 
-  private static byte[] fastPathRead(InputStream in, int length) throws IOException {
-    byte[] result = new byte[length];
-    for (int i = 0; i < length; i++) {
-      result[i] = (byte) in.read();
-    }
-    return result;
+  // unpacks 8 registers from the 8 * bitSize LSBs of the word
+  private static void unpack8(long word, byte[] output, int offset, int bitSize, int mask) {
+    output[offset] = (byte) ((word >>> (7 * bitSize)) & mask);
+    output[offset + 1] = (byte) ((word >>> (6 * bitSize)) & mask);
+    output[offset + 2] = (byte) ((word >>> (5 * bitSize)) & mask);
+    output[offset + 3] = (byte) ((word >>> (4 * bitSize)) & mask);
+    output[offset + 4] = (byte) ((word >>> (3 * bitSize)) & mask);
+    output[offset + 5] = (byte) ((word >>> (2 * bitSize)) & mask);
+    output[offset + 6] = (byte) ((word >>> bitSize) & mask);
+    output[offset + 7] = (byte) (word & mask);
   }
 
   /**
-   * Get estimated cardinality without deserializing HLL
+   * Get estimated cardinality without deserializing HLL. Works for weighted
+   * hyperloglogs as well.
    * @param in
    *          - serialized HLL
    * @return - cardinality
@@ -317,6 +601,15 @@ public class HyperLogLogUtils {
     }
   }
 
+  private static void checkMagicString(ByteBuffer buffer) {
+    byte[] magic = new byte[MAGIC.length];
+    buffer.get(magic);
+
+    if (!Arrays.equals(magic, MAGIC)) {
+      throw new IllegalArgumentException("The input buffer is not a HyperLogLog buffer.");
+    }
+  }
+
   /**
    * Minimum bits required to encode the specified value
    * @param val
@@ -346,25 +639,38 @@ public class HyperLogLogUtils {
   }
 
   /**
-   * Write variable length encoded longs to output stream
-   * @param output
-   *          - out stream
+   * Write variable length encoded longs to buffer
+   * @param buffer
+   *          - output buffer
    * @param value
    *          - long
-   * @throws IOException
    */
-  private static void writeVulong(OutputStream output, long value) throws IOException {
+  private static void writeVulong(ByteBuffer buffer, long value) {
     while (true) {
       if ((value & ~0x7f) == 0) {
-        output.write((byte) value);
+        buffer.put((byte) value);
         return;
       } else {
-        output.write((byte) (0x80 | (value & 0x7f)));
+        buffer.put((byte) (0x80 | (value & 0x7f)));
         value >>>= 7;
       }
     }
   }
 
+  /**
+   * @param value
+   *          - long
+   * @return number of bytes to variable length encode the value
+   */
+  private static int getVulongSize(long value) {
+    int size = 1;
+    while ((value & ~0x7f) != 0) {
+      value >>>= 7;
+      size++;
+    }
+    return size;
+  }
+
   /**
    * Read variable length encoded longs from input stream
    * @param in
@@ -387,4 +693,67 @@ public class HyperLogLogUtils {
     return result;
   }
 
+  /**
+   * Read variable length encoded longs from buffer
+   * @param buffer
+   *          - input buffer
+   * @return decoded long value
+   */
+  private static long readVulong(ByteBuffer buffer) {
+    long result = 0;
+    long b;
+    int offset = 0;
+    do {
+      b = buffer.get() & 0xff;
+      result |= (0x7f & b) << offset;
+      offset += 7;
+    } while (b >= 0x80);
+    return result;
+  }
+
+  /**
+   * Read variable length encoded ints from input stream. Every encoded value
+   * takes at least one byte, so the stream is read in bulk as many bytes as
+   * there are values left which never reads past the last value.
+   * @param in
+   *          - input stream
+   * @param values
+   *          - array to read the values into
+   * @param length
+   *          - number of values to read
+   * @throws IOException
+   */
+  private static void readVulongs(InputStream in, int[] values, int length) throws IOException {
+    byte[] buffer = new byte[Math.min(length, READ_BUFFER_SIZE)];
+    int idx = 0;
+    int value = 0;
+    int offset = 0;
+    while (idx < length) {
+      int n = Math.min(length - idx, buffer.length);
+      readFully(in, buffer, 0, n);
+      for (int i = 0; i < n; i++) {
+        int b = buffer[i];
+        value |= (0x7f & b) << offset;
+        offset += 7;
+        if (b >= 0) {
+          values[idx++] = value;
+          value = 0;
+          offset = 0;
+        }
+      }
+    }
+  }
+
+  private static void readFully(InputStream in, byte[] buffer, int offset, int length)
+      throws IOException {
+    while (length > 0) {
+      int n = in.read(buffer, offset, length);
+      if (n < 0) {
+        throw new EOFException("Reading HyperLogLog past EOF");
+      }
+      offset += n;
+      length -= n;
+    }
+  }
+
 }
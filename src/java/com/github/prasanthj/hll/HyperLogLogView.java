@@ -0,0 +1,220 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+import com.github.prasanthj.hll.HyperLogLog.EncodingType;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <pre>
+ * Read-only view of a hyperloglog serialized by HyperLogLogUtils.serializeHLL().
+ * The view reads the registers directly from the buffer without creating a
+ * hyperloglog, so it can be used to count or merge stored hyperloglogs.
+ *
+ * A view is a flyweight. wrap() points it to another serialized hyperloglog
+ * and the scratch space used for the registers is reused across wraps, so
+ * iterating over many stored hyperloglogs with one view allocates only when
+ * p changes or the sparse list outgrows the scratch space.
+ *
+ * HyperLogLogView view = new HyperLogLogView();
+ * for (ByteBuffer stored : buffers) {
+ *   result.merge(view.wrap(stored));
+ * }
+ *
+ * The buffer is not copied and its position is not changed. It must not be
+ * modified while it is wrapped.
+ * </pre>
+ */
+public final class HyperLogLogView {
+
+  private ByteBuffer buffer;
+
+  // absolute index of the serialized hyperloglog in the buffer
+  private int offset;
+
+  private int p;
+  private int bitSize;
+  private long estimatedCount;
+
+  // number of entries in the sparse list (SPARSE encoding only)
+  private int numSparseEntries;
+
+  // absolute index of the registers in the buffer
+  private int registerOffset;
+
+  // scratch hyperloglog (DENSE encoding) that holds the unpacked registers
+  private HyperLogLog dense;
+
+  // scratch space for the sparse list (SPARSE encoding)
+  private int[] sparseList = new int[0];
+
+  // whether the registers of the current hyperloglog are in the scratch space
+  private boolean registersLoaded;
+
+  /**
+   * Wraps the hyperloglog serialized at the current position of the buffer.
+   * @param buffer
+   *          - heap or direct buffer
+   * @return this view
+   */
+  public HyperLogLogView wrap(ByteBuffer buffer) {
+    return wrap(buffer, buffer.position());
+  }
+
+  /**
+   * Wraps the hyperloglog serialized at the specified index of the buffer.
+   * @param buffer
+   *          - heap or direct buffer
+   * @param offset
+   *          - absolute index of the serialized hyperloglog
+   * @return this view
+   * @throws IllegalArgumentException - thrown when the buffer does not contain
+   *           a serialized hyperloglog at offset
+   */
+  public HyperLogLogView wrap(ByteBuffer buffer, int offset) {
+    int pos = offset;
+    for (byte b : HyperLogLogUtils.MAGIC) {
+      if (buffer.get(pos++) != b) {
+        throw new IllegalArgumentException("The input buffer is not a HyperLogLog buffer.");
+      }
+    }
+    int fourthByte = buffer.get(pos++) & 0xff;
+    if (HyperLogLogUtils.isWeighted(fourthByte)) {
+      throw new IllegalArgumentException("The input buffer is a WeightedHyperLogLog buffer.");
+    }
+
+    this.buffer = buffer;
+    this.offset = offset;
+    this.p = fourthByte >>> 4;
+    this.bitSize = HyperLogLogUtils.getBitSize(fourthByte);
+    this.registerOffset = pos;
+    this.estimatedCount = readVulong();
+    if (bitSize == 0) {
+      this.numSparseEntries = (int) readVulong();
+    } else {
+      this.numSparseEntries = 0;
+    }
+    this.registersLoaded = false;
+    return this;
+  }
+
+  public int getNumRegisterIndexBits() {
+    return p;
+  }
+
+  public EncodingType getEncoding() {
+    return bitSize == 0 ? EncodingType.SPARSE : EncodingType.DENSE;
+  }
+
+  /**
+   * @return count stored in the header when the hyperloglog was serialized
+   */
+  public long getEstimatedCount() {
+    return estimatedCount;
+  }
+
+  /**
+   * Estimated cardinality computed from the registers. Same as the count of
+   * the deserialized hyperloglog after its registers are updated.
+   * @return estimated cardinality
+   */
+  public long count() {
+    if (bitSize == 0) {
+      // linear counting on pPrime bits of register index
+      int mPrime = 1 << HLLConstants.P_PRIME_VALUE;
+      return HyperLogLog.linearCount(mPrime, mPrime - numSparseEntries);
+    }
+    HyperLogLog hll = getDenseHyperLogLog();
+    // invalidate the count cached for the previously wrapped hyperloglog
+    hll.setCount(-1);
+    return hll.count();
+  }
+
+  /**
+   * @return deserialized copy of the hyperloglog
+   */
+  public HyperLogLog toHyperLogLog() {
+    ByteBuffer duplicate = buffer.duplicate();
+    duplicate.position(offset);
+    return HyperLogLogUtils.deserializeHLL(duplicate);
+  }
+
+  /**
+   * @return registers in a scratch dense register that is reused across wraps
+   */
+  HLLDenseRegister getDenseRegister() {
+    return getDenseHyperLogLog().getHLLDenseRegister();
+  }
+
+  /**
+   * @return sorted sparse list in a scratch array that is reused across wraps.
+   *         Only the first getSparseListSize() entries are valid.
+   */
+  int[] getSparseList() {
+    if (!registersLoaded) {
+      if (sparseList.length < numSparseEntries) {
+        sparseList = new int[Math.max(numSparseEntries, sparseList.length * 2)];
+      }
+
+      // entries are delta encoded
+      int prev = 0;
+      for (int i = 0; i < numSparseEntries; i++) {
+        prev += (int) readVulong();
+        sparseList[i] = prev;
+      }
+      registersLoaded = true;
+    }
+    return sparseList;
+  }
+
+  int getSparseListSize() {
+    return numSparseEntries;
+  }
+
+  private HyperLogLog getDenseHyperLogLog() {
+    if (dense == null || dense.getNumRegisterIndexBits() != p) {
+      dense = HyperLogLog.builder().setNumRegisterIndexBits(p).setEncoding(EncodingType.DENSE)
+          .build();
+      registersLoaded = false;
+    }
+    if (!registersLoaded) {
+      HLLDenseRegister register = dense.getHLLDenseRegister();
+      HyperLogLogUtils.unpackHLLRegister(buffer, registerOffset, register.getRegister(), bitSize);
+
+      // hyperloglogs serialized without bit packing are deserialized with bit
+      // packing disabled, which is tracked as the max register value
+      register.maxRegisterValue = bitSize == 8 ? 0xff : 0;
+      register.recomputeSumAndZeroes();
+      registersLoaded = true;
+    }
+    return dense;
+  }
+
+  // reads a variable length encoded long at registerOffset and advances it
+  private long readVulong() {
+    long result = 0;
+    long b;
+    int shift = 0;
+    do {
+      b = buffer.get(registerOffset++) & 0xff;
+      result |= (0x7f & b) << shift;
+      shift += 7;
+    } while (b >= 0x80);
+    return result;
+  }
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * File that is memory mapped in fixed size segments, as a single mapping
+ * cannot be larger than 2GB. Segments are mapped on first access. Only the
+ * start of a segment is mapped at first, and the mapping doubles up to the
+ * segment size as higher offsets are accessed, so the file grows with the
+ * data written to it instead of a whole segment at a time. Callers have to
+ * make sure that a value does not straddle two segments.
+ */
+final class MappedFile implements Closeable {
+
+  // smallest mapping of a segment
+  static final int MIN_MAPPING_SHIFT = 16;
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final int segmentShift;
+  private final int segmentMask;
+  private MappedByteBuffer[] segments;
+
+  /**
+   * @param path
+   *          - file to map. Created if it does not exist.
+   * @param segmentShift
+   *          - log2 of the segment size
+   */
+  MappedFile(File path, int segmentShift) throws IOException {
+    this.file = new RandomAccessFile(path, "rw");
+    this.channel = file.getChannel();
+    this.segmentShift = segmentShift;
+    this.segmentMask = (1 << segmentShift) - 1;
+    this.segments = new MappedByteBuffer[0];
+  }
+
+  int getSegmentSize() {
+    return 1 << segmentShift;
+  }
+
+  /**
+   * @param pos
+   *          - position in the file
+   * @param length
+   *          - number of bytes from the position that are accessed
+   * @return mapped segment containing the position. Use offset(pos) for the
+   *         index within the segment.
+   */
+  ByteBuffer segment(long pos, int length) throws IOException {
+    int idx = (int) (pos >>> segmentShift);
+    int end = offset(pos) + length;
+    if (idx >= segments.length || segments[idx] == null || segments[idx].capacity() < end) {
+      map(idx, end);
+    }
+    return segments[idx];
+  }
+
+  int offset(long pos) {
+    return (int) (pos & segmentMask);
+  }
+
+  long getLong(long pos) throws IOException {
+    return segment(pos, 8).getLong(offset(pos));
+  }
+
+  void putLong(long pos, long value) throws IOException {
+    segment(pos, 8).putLong(offset(pos), value);
+  }
+
+  int getInt(long pos) throws IOException {
+    return segment(pos, 4).getInt(offset(pos));
+  }
+
+  void putInt(long pos, int value) throws IOException {
+    segment(pos, 4).putInt(offset(pos), value);
+  }
+
+  long length() throws IOException {
+    return channel.size();
+  }
+
+  /**
+   * Maps at least the first end bytes of the segment. The mapping is the
+   * smallest power of 2 that covers end and the part of the segment already
+   * in the file, so a segment is remapped a logarithmic number of times.
+   */
+  private void map(int idx, int end) throws IOException {
+    if (idx >= segments.length) {
+      segments = Arrays.copyOf(segments, Math.max(idx + 1, segments.length * 2));
+    }
+    long start = (long) idx << segmentShift;
+    long inFile = Math.min(Math.max(channel.size() - start, 0), getSegmentSize());
+    int size = Math.min(1 << MIN_MAPPING_SHIFT, getSegmentSize());
+    while (size < end || size < inFile) {
+      size <<= 1;
+    }
+    if (channel.size() < start + size) {
+      file.setLength(start + size);
+    }
+    // buffers of the previous mapping stay valid as the file is only grown
+    segments[idx] = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+  }
+
+  /**
+   * Writes the modified segments to the storage device.
+   */
+  void force() {
+    for (MappedByteBuffer segment : segments) {
+      if (segment != null) {
+        segment.force();
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    segments = new MappedByteBuffer[0];
+    channel.close();
+    file.close();
+  }
+}
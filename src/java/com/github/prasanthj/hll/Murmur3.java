@@ -43,7 +43,7 @@ public class Murmur3 {
   private static final int N1 = 0x52dce729;
   private static final int N2 = 0x38495ab5;
 
-  private static final int DEFAULT_SEED = 123;
+  public static final int DEFAULT_SEED = 123;
 
   /**
    * Murmur3 32-bit variant.
@@ -60,7 +60,7 @@ public class Murmur3 {
    *
    * @param data   - input byte array
    * @param length - length of array
-   * @param seed   - seed. (default 0)
+   * @param seed   - seed. (default is DEFAULT_SEED)
    * @return - hashcode
    */
   public static int hash32(byte[] data, int length, int seed) {
@@ -127,37 +127,32 @@ public class Murmur3 {
    *
    * @param data   - input byte array
    * @param length - length of array
-   * @param seed   - seed. (default is 0)
+   * @param seed   - seed. (default is DEFAULT_SEED)
    * @return - hashcode
    */
   public static long hash64(byte[] data, int length, int seed) {
-    long hash = seed;
-    final int nblocks = length >> 3;
+    return hash64(data, 0, length, seed);
+  }
 
-    // body
-    for (int i = 0; i < nblocks; i++) {
-      final int i8 = i << 3;
-      long k = ((long) data[i8] & 0xff)
-        | (((long) data[i8 + 1] & 0xff) << 8)
-        | (((long) data[i8 + 2] & 0xff) << 16)
-        | (((long) data[i8 + 3] & 0xff) << 24)
-        | (((long) data[i8 + 4] & 0xff) << 32)
-        | (((long) data[i8 + 5] & 0xff) << 40)
-        | (((long) data[i8 + 6] & 0xff) << 48)
-        | (((long) data[i8 + 7] & 0xff) << 56);
+  /**
+   * Murmur3 64-bit variant. This is essentially MSB 8 bytes of Murmur3 128-bit variant.
+   *
+   * @param data   - input byte array
+   * @param offset - offset of the first byte to hash
+   * @param length - number of bytes to hash
+   * @param seed   - seed. (default is DEFAULT_SEED)
+   * @return - hashcode
+   */
+  public static long hash64(byte[] data, int offset, int length, int seed) {
+    final int nblocks = length >> 3;
 
-      // mix functions
-      k *= C1;
-      k = Long.rotateLeft(k, R1);
-      k *= C2;
-      hash ^= k;
-      hash = Long.rotateLeft(hash, R2) * M + N1;
-    }
+    // body. Keys shorter than a block are hashed without wrapping the array.
+    long hash = nblocks == 0 ? seed : mixBlocks(littleEndian(data), offset, nblocks, seed);
 
     // tail
     long k1 = 0;
-    int tailStart = nblocks << 3;
-    switch (length - tailStart) {
+    int tailStart = offset + (nblocks << 3);
+    switch (length - (nblocks << 3)) {
       case 7:
         k1 ^= ((long) data[tailStart + 6] & 0xff) << 48;
       case 6:
@@ -186,48 +181,310 @@ public class Murmur3 {
   }
 
   /**
-   * Murmur3 128-bit variant.
+   * Murmur3 64-bit variant of the bytes between position and limit of a heap
+   * or direct buffer. Produces the same hashcode as hash64(byte[]) of those
+   * bytes. The position of the buffer is not changed.
    *
-   * @param data - input byte array
-   * @return - hashcode (2 longs)
+   * @param data - input buffer
+   * @return - hashcode
    */
-  public static long[] hash128(byte[] data) {
-    return hash128(data, data.length, DEFAULT_SEED);
+  public static long hash64(ByteBuffer data) {
+    return hash64(data, data.position(), data.remaining(), DEFAULT_SEED);
   }
 
   /**
-   * Murmur3 128-bit variant.
+   * Murmur3 64-bit variant of a heap or direct buffer. The bytes are read in
+   * 8 byte blocks directly from the buffer, so off-heap data is hashed without
+   * copying it to the heap. Produces the same hashcode as hash64(byte[],
+   * offset, length, seed) of the same bytes irrespective of the byte order of
+   * the buffer. The position of the buffer is not changed.
    *
-   * @param data   - input byte array
-   * @param length - length of array
-   * @param seed   - seed. (default is 0)
-   * @return - hashcode (2 longs)
+   * @param data   - input buffer
+   * @param offset - absolute index of the first byte to hash
+   * @param length - number of bytes to hash
+   * @param seed   - seed. (default is DEFAULT_SEED)
+   * @return - hashcode
    */
-  public static long[] hash128(byte[] data, int length, int seed) {
-    long h1 = seed;
-    long h2 = seed;
-    final int nblocks = length >> 4;
+  public static long hash64(ByteBuffer data, int offset, int length, int seed) {
+    final int nblocks = length >> 3;
 
     // body
+    long hash = mixBlocks(data, offset, nblocks, seed);
+
+    // tail
+    long k1 = 0;
+    int tailStart = offset + (nblocks << 3);
+    switch (length - (nblocks << 3)) {
+      case 7:
+        k1 ^= ((long) data.get(tailStart + 6) & 0xff) << 48;
+      case 6:
+        k1 ^= ((long) data.get(tailStart + 5) & 0xff) << 40;
+      case 5:
+        k1 ^= ((long) data.get(tailStart + 4) & 0xff) << 32;
+      case 4:
+        k1 ^= ((long) data.get(tailStart + 3) & 0xff) << 24;
+      case 3:
+        k1 ^= ((long) data.get(tailStart + 2) & 0xff) << 16;
+      case 2:
+        k1 ^= ((long) data.get(tailStart + 1) & 0xff) << 8;
+      case 1:
+        k1 ^= ((long) data.get(tailStart) & 0xff);
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, R1);
+        k1 *= C2;
+        hash ^= k1;
+    }
+
+    // finalization
+    hash ^= length;
+    hash = fmix64(hash);
+
+    return hash;
+  }
+
+  /**
+   * Murmur3 64-bit variant of a single byte. Produces the same hashcode as
+   * hash64(new byte[]{data}) without allocating the array.
+   *
+   * @param data - input byte
+   * @return - hashcode
+   */
+  public static long hash64(byte data) {
+    return hash64Tail((long) data & 0xff, Byte.BYTES);
+  }
+
+  /**
+   * Murmur3 64-bit variant of a short. Produces the same hashcode as hashing
+   * the big endian bytes of the value (ByteBuffer.putShort()).
+   *
+   * @param data - input short
+   * @return - hashcode
+   */
+  public static long hash64(short data) {
+    return hash64Tail((long) Short.reverseBytes(data) & 0xffff, Short.BYTES);
+  }
+
+  /**
+   * Murmur3 64-bit variant of a char. Produces the same hashcode as hashing
+   * the big endian bytes of the value (ByteBuffer.putChar()).
+   *
+   * @param data - input char
+   * @return - hashcode
+   */
+  public static long hash64(char data) {
+    return hash64Tail((long) Character.reverseBytes(data) & 0xffff, Character.BYTES);
+  }
+
+  /**
+   * Murmur3 64-bit variant of an int. Produces the same hashcode as hashing
+   * the big endian bytes of the value (ByteBuffer.putInt()).
+   *
+   * @param data - input int
+   * @return - hashcode
+   */
+  public static long hash64(int data) {
+    return hash64Tail((long) Integer.reverseBytes(data) & 0xffffffffL, Integer.BYTES);
+  }
+
+  /**
+   * Murmur3 64-bit variant of a float. Produces the same hashcode as hashing
+   * the big endian bytes of the value (ByteBuffer.putFloat()).
+   *
+   * @param data - input float
+   * @return - hashcode
+   */
+  public static long hash64(float data) {
+    return hash64(Float.floatToRawIntBits(data));
+  }
+
+  /**
+   * Murmur3 64-bit variant of a long. Produces the same hashcode as hashing
+   * the big endian bytes of the value (ByteBuffer.putLong()).
+   *
+   * @param data - input long
+   * @return - hashcode
+   */
+  public static long hash64(long data) {
+    long hash = DEFAULT_SEED;
+
+    // single 8 byte block read in little endian order
+    long k = Long.reverseBytes(data);
+
+    // mix functions
+    k *= C1;
+    k = Long.rotateLeft(k, R1);
+    k *= C2;
+    hash ^= k;
+    hash = Long.rotateLeft(hash, R2) * M + N1;
+
+    // finalization
+    hash ^= Long.BYTES;
+    hash = fmix64(hash);
+
+    return hash;
+  }
+
+  /**
+   * Murmur3 64-bit variant of a double. Produces the same hashcode as hashing
+   * the big endian bytes of the value (ByteBuffer.putDouble()).
+   *
+   * @param data - input double
+   * @return - hashcode
+   */
+  public static long hash64(double data) {
+    return hash64(Double.doubleToRawLongBits(data));
+  }
+
+  /**
+   * Murmur3 64-bit variant of the UTF-8 encoding of a char sequence. Produces
+   * the same hashcode as hash64(data.toString().getBytes(UTF_8)) without
+   * encoding the chars to an array. Unpaired surrogates are encoded as '?'
+   * like String.getBytes().
+   *
+   * @param data - input chars
+   * @return - hashcode
+   */
+  public static long hash64Utf8(CharSequence data) {
+    return hash64Utf8(null, data, 0, data.length());
+  }
+
+  /**
+   * Murmur3 64-bit variant of the UTF-8 encoding of a char array range.
+   *
+   * @param data   - input chars
+   * @param offset - offset of the first char to hash
+   * @param length - number of chars to hash
+   * @return - hashcode
+   * @see #hash64Utf8(CharSequence)
+   */
+  public static long hash64Utf8(char[] data, int offset, int length) {
+    return hash64Utf8(data, null, offset, offset + length);
+  }
+
+  // chars are read from the array if it is not null and from the sequence
+  // otherwise. The check is loop invariant, so the JIT compiles a separate
+  // loop for each without the interface call of charAt() for arrays.
+  private static char charAt(char[] array, CharSequence sequence, int i) {
+    return array != null ? array[i] : sequence.charAt(i);
+  }
+
+  private static long hash64Utf8(char[] array, CharSequence sequence, int start, int end) {
+    long hash = DEFAULT_SEED;
+    // encoded bytes of the current 8 byte block in little endian order
+    long k = 0;
+    int bits = 0;
+    long length = 0;
+
+    int i = start;
+    while (i < end) {
+      // ascii chars at the start of a block are read as a whole block
+      if (bits == 0 && end - i >= Long.BYTES) {
+        long block = 0;
+        int chars = 0;
+        for (int j = 0; j < Long.BYTES; j++) {
+          char c = charAt(array, sequence, i + j);
+          chars |= c;
+          block |= (long) c << (j << 3);
+        }
+        if (chars < 0x80) {
+          hash = mix64(hash, block);
+          length += Long.BYTES;
+          i += Long.BYTES;
+          continue;
+        }
+      }
+
+      int c = charAt(array, sequence, i++);
+      long bytes;
+      int numBytes;
+      if (c < 0x80) {
+        bytes = c;
+        numBytes = 1;
+      } else if (c < 0x800) {
+        bytes = (0xc0 | (c >>> 6)) | ((0x80 | (c & 0x3f)) << 8);
+        numBytes = 2;
+      } else if (!Character.isSurrogate((char) c)) {
+        bytes = (0xe0 | (c >>> 12)) | ((0x80 | ((c >>> 6) & 0x3f)) << 8)
+            | ((0x80 | (c & 0x3f)) << 16);
+        numBytes = 3;
+      } else if (Character.isHighSurrogate((char) c) && i < end
+          && Character.isLowSurrogate(charAt(array, sequence, i))) {
+        int cp = Character.toCodePoint((char) c, charAt(array, sequence, i++));
+        bytes = (0xf0 | (cp >>> 18)) | ((0x80 | ((cp >>> 12) & 0x3f)) << 8)
+            | ((0x80 | ((cp >>> 6) & 0x3f)) << 16) | ((long) (0x80 | (cp & 0x3f)) << 24);
+        numBytes = 4;
+      } else {
+        bytes = '?';
+        numBytes = 1;
+      }
+      length += numBytes;
+
+      // append to the block and carry the bytes that do not fit to the next
+      k |= bytes << bits;
+      bits += numBytes << 3;
+      if (bits >= Long.SIZE) {
+        hash = mix64(hash, k);
+        bits -= Long.SIZE;
+        k = bits == 0 ? 0 : bytes >>> ((numBytes << 3) - bits);
+      }
+    }
+
+    // tail
+    if (bits > 0) {
+      k *= C1;
+      k = Long.rotateLeft(k, R1);
+      k *= C2;
+      hash ^= k;
+    }
+
+    // finalization
+    hash ^= length;
+    hash = fmix64(hash);
+
+    return hash;
+  }
+
+  // mixes an 8 byte block into the hash
+  private static long mix64(long hash, long k) {
+    k *= C1;
+    k = Long.rotateLeft(k, R1);
+    k *= C2;
+    hash ^= k;
+    return Long.rotateLeft(hash, R2) * M + N1;
+  }
+
+  // little endian view of the array to read whole blocks with getLong(),
+  // which compiles to a single (unaligned) load
+  private static ByteBuffer littleEndian(byte[] data) {
+    return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  // mixes nblocks 8 byte blocks of the buffer into the hash. Blocks are read
+  // as little endian longs, blocks of a big endian buffer are byte reversed
+  // instead of reading them through a little endian duplicate of the buffer.
+  // Kept separate from the tail so that the JIT compiles the loop with
+  // getLong() inlined.
+  private static long mixBlocks(ByteBuffer blocks, int offset, int nblocks, long hash) {
+    final boolean bigEndian = blocks.order() == ByteOrder.BIG_ENDIAN;
+    for (int i = 0; i < nblocks; i++) {
+      long k = blocks.getLong(offset + (i << 3));
+      if (bigEndian) {
+        k = Long.reverseBytes(k);
+      }
+      hash = mix64(hash, k);
+    }
+    return hash;
+  }
+
+  // mixes nblocks 16 byte blocks of a little endian buffer into h1 and h2,
+  // which are hash[0] and hash[1].
+  private static void mixBlocks128(ByteBuffer blocks, int nblocks, long[] hash) {
+    long h1 = hash[0];
+    long h2 = hash[1];
     for (int i = 0; i < nblocks; i++) {
       final int i16 = i << 4;
-      long k1 = ((long) data[i16] & 0xff)
-        | (((long) data[i16 + 1] & 0xff) << 8)
-        | (((long) data[i16 + 2] & 0xff) << 16)
-        | (((long) data[i16 + 3] & 0xff) << 24)
-        | (((long) data[i16 + 4] & 0xff) << 32)
-        | (((long) data[i16 + 5] & 0xff) << 40)
-        | (((long) data[i16 + 6] & 0xff) << 48)
-        | (((long) data[i16 + 7] & 0xff) << 56);
-
-      long k2 = ((long) data[i16 + 8] & 0xff)
-        | (((long) data[i16 + 9] & 0xff) << 8)
-        | (((long) data[i16 + 10] & 0xff) << 16)
-        | (((long) data[i16 + 11] & 0xff) << 24)
-        | (((long) data[i16 + 12] & 0xff) << 32)
-        | (((long) data[i16 + 13] & 0xff) << 40)
-        | (((long) data[i16 + 14] & 0xff) << 48)
-        | (((long) data[i16 + 15] & 0xff) << 56);
+      long k1 = blocks.getLong(i16);
+      long k2 = blocks.getLong(i16 + 8);
 
       // mix functions for k1
       k1 *= C1;
@@ -247,6 +504,53 @@ public class Murmur3 {
       h2 += h1;
       h2 = h2 * M + N2;
     }
+    hash[0] = h1;
+    hash[1] = h2;
+  }
+
+  // hash of an input shorter than 8 bytes which consists only of the tail
+  private static long hash64Tail(long k1, int length) {
+    long hash = DEFAULT_SEED;
+    k1 *= C1;
+    k1 = Long.rotateLeft(k1, R1);
+    k1 *= C2;
+    hash ^= k1;
+
+    // finalization
+    hash ^= length;
+    hash = fmix64(hash);
+
+    return hash;
+  }
+
+  /**
+   * Murmur3 128-bit variant.
+   *
+   * @param data - input byte array
+   * @return - hashcode (2 longs)
+   */
+  public static long[] hash128(byte[] data) {
+    return hash128(data, data.length, DEFAULT_SEED);
+  }
+
+  /**
+   * Murmur3 128-bit variant.
+   *
+   * @param data   - input byte array
+   * @param length - length of array
+   * @param seed   - seed. (default is DEFAULT_SEED)
+   * @return - hashcode (2 longs)
+   */
+  public static long[] hash128(byte[] data, int length, int seed) {
+    final int nblocks = length >> 4;
+
+    // body. Keys shorter than a block are hashed without wrapping the array.
+    final long[] hash = new long[]{seed, seed};
+    if (nblocks > 0) {
+      mixBlocks128(littleEndian(data), nblocks, hash);
+    }
+    long h1 = hash[0];
+    long h2 = hash[1];
 
     // tail
     long k1 = 0;
@@ -307,7 +611,9 @@ public class Murmur3 {
     h1 += h2;
     h2 += h1;
 
-    return new long[]{h1, h2};
+    hash[0] = h1;
+    hash[1] = h2;
+    return hash;
   }
 
   private static long fmix64(long h) {
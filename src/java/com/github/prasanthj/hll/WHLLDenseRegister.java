@@ -1,9 +1,8 @@
 package com.github.prasanthj.hll;
 
-import java.util.Arrays;
-import java.util.Random;
-
 public class WHLLDenseRegister extends HLLDenseRegister{
+    private static final double LN2 = Math.log(2);
+
     /*
     * // 2^p number of bytes for register
     private byte[] register;
@@ -30,228 +29,76 @@ public class WHLLDenseRegister extends HLLDenseRegister{
     }
 
 
-    public boolean add(long hashcode, double weight) {//TODO: riscrivi da capo
-        if( weight<=0){
-            throw new IllegalArgumentException("Weigths must be strictly positive. Provided Weight: "+ weight);
-        }
-
-        // LSB p bits
-        final int registerIdx = (int) (hashcode & (m - 1));
-
-        // MSB 64 - p bits
-
-        final long w = hashcode >>> p;
-
-        final int lr = Long.numberOfTrailingZeros(w) + 1;
-
-        //return set(registerIdx, (byte) lr);
-
-        //WEIGHTED VERSION
-        double unif01 = (w+1)/(Math.pow(2, 64-p));
-
-        double h2Tilde = 1 - Math.pow(1.0 - unif01, 1.0/weight);
-
-        //System.out.println("I am printing the unif01 value: "+ unif01);
-        double log2Unif = Math.log(h2Tilde)/Math.log(2);
-
-        int toBeInserted = ((int) Math.floor(-log2Unif));
-        System.out.println("I am inserting in the registers the value :"+ toBeInserted + ", rather than the tail of trailing 0's : "+ lr);
-        return set(registerIdx, (byte) (toBeInserted + 1));
-
-
-    }
-
-    //TODO: CHECK computePi for correctness!!
-    public boolean yet_another_add(long hashcode, double weight){
-
-        if( weight<=0){
-            throw new IllegalArgumentException("Weigths must be strictly positive. Provided Weight: "+ weight);
-        }
-
+    /**
+     * Weighted insert. The register value is distributed like the maximum of
+     * weight independent unweighted register values, i.e. P(value <= k) =
+     * (1 - 2^-k)^weight, so an element with weight w counts like w distinct
+     * elements. The value is derived from the hashcode alone, so adding the
+     * same element with the same weight always sets the same register value.
+     * @param hashcode
+     *          - 64 bit hashcode of the element
+     * @param weight
+     *          - strictly positive weight of the element
+     * @return true if the register was updated
+     */
+    public boolean add(long hashcode, double weight) {
         // LSB p bits
         final int registerIdx = (int) (hashcode & (m - 1));
-
-        // MSB 64 - p bits
-
-        final long w = hashcode >>> p;
-
-        double wToDecimal = (double) (w+1)/(Math.pow(2.0,(64-p)));
-        double elevatedW = Math.pow(wToDecimal, 1.0/( weight));
-        long eWToLong = (long) (elevatedW * Math.pow(2.0,(64-p)));
-        long lr = Long.numberOfTrailingZeros(eWToLong)+1;
-        //System.out.println("My rarity Measure is : "+ rarityMeasure);
-        return set(registerIdx, (byte) lr);
-    }
-    public boolean my_add(long hashcode, double weight){
-        if (weight<= 0){
-            throw new IllegalArgumentException("Weights must be stricly positive. Provided weight : "+ weight);
-        }
-
-        final int registerIdx = (int) (hashcode & (m-1));
-
-        final long w = hashcode >>> p;
-
-        int lr = Long.numberOfTrailingZeros(w)+1;
-
-        boolean obtainedNewTail = false;
-
-        int i = 0;
-
-        double p_i = computePi(lr, i, weight); //p_0
-        System.out.println("My p_i is : "+ p_i);
-        Random rnd = new Random(); //seed is very likely ot be different from one invocation of the constructor to another
-        double f = rnd.nextDouble();
-        while(f>p_i){
-
-            System.out.println("My pi is now  for iteration "+i+" : "+p_i);
-            i++;
-            p_i = computePi(lr,i,weight);
-
-            f = rnd.nextDouble();
-        }
-        int newTail = lr + i;
-        return set(registerIdx, (byte) (newTail)); //Il + 1 l'ho aggiunto per analogia all'implementazione di base
-    }
-    // this is a lossy invert of the function above, which produces a hashcode
-    // which collides with the current winner of the register (we lose all higher
-    // bits, but we get all bits useful for lesser p-bit options)
-
-    // +-------------|-------------+
-    // |xxxx100000000|1000000000000|  (lr=9 + idx=1024)
-    // +-------------|-------------+
-    //                \
-    // +---------------|-----------+
-    // |xxxx10000000010|00000000000|  (lr=2 + idx=0)
-    // +---------------|-----------+
-
-    // This shows the relevant bits of the original hash value
-    // and how the conversion is moving bits from the index value
-    // over to the leading zero computation
-    private static double computePi(int lr, int iteration, double weight){
-        double base = 1 - Math.pow(1.0/2.0,  (lr + iteration) );
-
-        return Math.pow(base, weight-1);
-    }
-    public void extractLowBitsTo(HLLRegister dest) {
-        for (int idx = 0; idx < register.length; idx++) {
-            byte lr = register[idx]; // this can be a max of 65, never > 127
-            if (lr != 0) {
-                dest.add((long) ((1 << (p + lr - 1)) | idx));
-            }
-        }
-    }
-
-    public boolean set(int idx, byte value) {
-        boolean updated = false;
-        if (idx < register.length && value > register[idx]) {
-
-            // update max register value
-            if (value > maxRegisterValue) {
-                maxRegisterValue = value;
-            }
-
-            // set register value and compute inverse pow of 2 for register value
-            register[idx] = value;
-
-            updated = true;
-        }
-        return updated;
-    }
-
-    public int size() {
-        return register.length;
-    }
-
-    public int getNumZeroes() {
-        int numZeroes = 0;
-        for (byte b : register) {
-            if (b == 0) {
-                numZeroes++;
-            }
-        }
-        return numZeroes;
-    }
-
-    public void merge(HLLRegister hllRegister) {
-        if (hllRegister instanceof HLLDenseRegister) {
-            HLLDenseRegister hdr = (HLLDenseRegister) hllRegister;
-            byte[] inRegister = hdr.getRegister();
-
-            // merge only if the register length matches
-            if (register.length != inRegister.length) {
-                throw new IllegalArgumentException(
-                        "The size of register sets of HyperLogLogs to be merged does not match.");
-            }
-
-            // compare register values and store the max register value
-            for (int i = 0; i < inRegister.length; i++) {
-                final byte cb = register[i];
-                final byte ob = inRegister[i];
-                register[i] = ob > cb ? ob : cb;
-            }
-
-            // update max register value
-            if (hdr.getMaxRegisterValue() > maxRegisterValue) {
-                maxRegisterValue = hdr.getMaxRegisterValue();
-            }
-        } else {
-            throw new IllegalArgumentException("Specified register is not instance of HLLDenseRegister");
+        return set(registerIdx, (byte) getRegisterValue(hashcode, weight));
+    }
+
+    /**
+     * Weighted register value of the hashcode. Unlike the unweighted register
+     * value, it is computed from the bits above the LSB pPrime bits, which are
+     * never used for the register index. So an element has the same value for
+     * any p, which makes the conversion from sparse entries and squashing to a
+     * smaller p a matter of retaining the largest value per register index.
+     * @param hashcode
+     *          - 64 bit hashcode of the element
+     * @param weight
+     *          - strictly positive weight of the element
+     * @return register value between 1 and 64 - pPrime + 1
+     */
+    static int getRegisterValue(long hashcode, double weight) {
+        return getRegisterValue(hashcode >>> HLLConstants.P_PRIME_VALUE,
+                64 - HLLConstants.P_PRIME_VALUE, weight);
+    }
+
+    /**
+     * Computes the weighted register value by inverse transform sampling of
+     * P(value <= k) = (1 - 2^-k)^weight. The bits of the hashcode that are not
+     * used for the register index are reversed to get a uniform v in (0, 1]
+     * whose unweighted register value ceil(-log2(v)) is the number of trailing
+     * zeroes + 1. The weighted value is ceil(-log2(1 - (1 - v)^(1/weight))).
+     * @param w
+     *          - hashcode bits not used for the register index
+     * @param numBits
+     *          - number of bits in w
+     * @param weight
+     *          - strictly positive weight of the element
+     * @return register value between 1 and numBits + 1
+     */
+    static int getRegisterValue(long w, int numBits, double weight) {
+        if (!(weight > 0)) {
+            throw new IllegalArgumentException("Weights must be strictly positive. Provided weight: "
+                    + weight);
         }
-    }
-
-    public byte[] getRegister() {
-        return register;
-    }
-
-    public void setRegister(byte[] register) {
-        this.register = register;
-    }
 
-    public int getMaxRegisterValue() {
-        return maxRegisterValue;
-    }
-
-    public double getSumInversePow2() {
-        double sum = 0;
-        for (byte b : register) {
-            sum += HLLConstants.inversePow2Data[b];
+        // longest run of trailing zeroes, same as the unweighted register value
+        final int lr = Long.numberOfTrailingZeros(w) + 1;
+        if (weight == 1.0 || w == 0) {
+            return Math.min(lr, numBits + 1);
         }
-        return sum;
-    }
 
-    @Override
-    public String toString() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("HLLDenseRegister - ");
-        sb.append("p: ");
-        sb.append(p);
-        sb.append(" numZeroes: ");
-        sb.append(getNumZeroes());
-        sb.append(" maxRegisterValue: ");
-        sb.append(maxRegisterValue);
-        return sb.toString();
-    }
+        // v = reversed bits / 2^numBits, so that ceil(-log2(v)) == lr
+        final double v = (Long.reverse(w) >>> (64 - numBits)) * Math.scalb(1.0, -numBits);
 
-    public String toExtendedString() {
-        return toString() + " register: " + Arrays.toString(register);
-    }
-
-    @Override
-    public boolean equals(Object obj) {
-        if (!(obj instanceof HLLDenseRegister)) {
-            return false;
+        // 1 - (1 - v)^(1/weight) without cancellation for small v
+        final double y = -Math.expm1(Math.log1p(-v) / weight);
+        final double value = Math.ceil(-Math.log(y) / LN2);
+        if (!(value < numBits + 1)) {
+            return numBits + 1;
         }
-        HLLDenseRegister other = (HLLDenseRegister) obj;
-        return getNumZeroes() == other.getNumZeroes() && maxRegisterValue == other.maxRegisterValue
-                && Arrays.equals(register, other.register);
-    }
-
-    @Override
-    public int hashCode() {
-        int hashcode = 0;
-        hashcode += 31 * getNumZeroes();
-        hashcode += 31 * maxRegisterValue;
-        hashcode += Arrays.hashCode(register);
-        return hashcode;
+        return Math.max(1, (int) value);
     }
 }
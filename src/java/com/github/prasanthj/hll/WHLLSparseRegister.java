@@ -0,0 +1,28 @@
+package com.github.prasanthj.hll;
+
+public class WHLLSparseRegister extends HLLSparseRegister {
+
+    // masks for quicker extraction of the pPrime bits register index
+    private final int pPrimeMask;
+
+    public WHLLSparseRegister(int p, int pp, int qp) {
+        super(p, pp, qp);
+        this.pPrimeMask = (1 << pp) - 1;
+    }
+
+    /**
+     * Weighted insert. The entry is keyed by the LSB pPrime bits of the
+     * hashcode like the unweighted entries and its value is the weighted
+     * register value that WHLLDenseRegister would set, so converting to dense
+     * registers is lossless.
+     * @param hashcode
+     *          - 64 bit hashcode of the element
+     * @param weight
+     *          - strictly positive weight of the element
+     * @return true
+     */
+    public boolean add(long hashcode, double weight) {
+        final int key = (int) (hashcode & pPrimeMask);
+        return addEntry((key << getQPrime()) | WHLLDenseRegister.getRegisterValue(hashcode, weight));
+    }
+}
@@ -1,24 +1,51 @@
 package com.github.prasanthj.hll;
 
-import it.unimi.dsi.fastutil.doubles.Double2IntAVLTreeMap;
-import it.unimi.dsi.fastutil.doubles.Double2IntSortedMap;
-
-import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
-import java.util.Map;
+import java.util.Arrays;
 
 public class WeightedHyperLogLog{
     private final static int DEFAULT_HASH_BITS = 64;
     private final static long HASH64_ZERO = Murmur3.hash64(new byte[]{0});
     private final static long HASH64_ONE = Murmur3.hash64(new byte[]{1});
-    private final static ByteBuffer SHORT_BUFFER = ByteBuffer.allocate(Short.BYTES);
-    private final static ByteBuffer INT_BUFFER = ByteBuffer.allocate(Integer.BYTES);
-    private final static ByteBuffer LONG_BUFFER = ByteBuffer.allocate(Long.BYTES);
 
     public enum EncodingType {
         SPARSE, DENSE
     }
 
+    /**
+     * Callback to trace the estimation of a weighted hyperloglog. Tracing is
+     * disabled unless a tracer is set with WHLLBuilder.setTracer(), in which
+     * case the tracer is called from the thread updating the sketch. Nothing
+     * is traced per added element.
+     */
+    public interface Tracer {
+
+        /**
+         * Called when count() recomputes the estimate.
+         * @param encoding
+         *          - encoding of the registers the estimate is computed from
+         * @param sum
+         *          - sum of 2^-register value over the p bits registers
+         * @param numZeros
+         *          - number of zero registers
+         * @param rawCount
+         *          - estimate from the harmonic mean before any correction
+         * @param count
+         *          - estimate returned by count()
+         */
+        void onCount(EncodingType encoding, double sum, long numZeros, long rawCount, long count);
+
+        /**
+         * Called when the sparse register is converted to dense registers,
+         * either because it exceeds the encoding switch threshold (on add or
+         * on merging a sparse weighted hyperloglog) or because a dense weighted
+         * hyperloglog is merged into it.
+         * @param sparseSize
+         *          - number of sparse entries when switching
+         */
+        void onEncodingSwitch(int sparseSize);
+    }
+
     // number of bits to address registers
     private final int p;
 
@@ -38,7 +65,7 @@ public class WeightedHyperLogLog{
     private final int chosenHashBits = DEFAULT_HASH_BITS;
 
     private WHLLDenseRegister denseRegister;
-    private HLLSparseRegister sparseRegister;
+    private WHLLSparseRegister sparseRegister;
 
     // counts are cached to avoid repeated complex computation. If register value
     // is updated the count will be computed again.
@@ -49,11 +76,16 @@ public class WeightedHyperLogLog{
 
     // threshold to switch from SPARSE to DENSE encoding
     private int encodingSwitchThreshold;
+
+    // null when tracing is disabled
+    private final Tracer tracer;
+
     public static class WHLLBuilder {
         private int numRegisterIndexBits = 14;
         private WeightedHyperLogLog.EncodingType encoding = WeightedHyperLogLog.EncodingType.SPARSE;
         private boolean bitPacking = true;
         private boolean noBias = true;
+        private Tracer tracer = null;
 
         public WHLLBuilder() {
         }
@@ -78,6 +110,11 @@ public class WeightedHyperLogLog{
             return this;
         }
 
+        public WeightedHyperLogLog.WHLLBuilder setTracer(Tracer t) {
+            this.tracer = t;
+            return this;
+        }
+
         public WeightedHyperLogLog build() {
             return new WeightedHyperLogLog(this);
         }
@@ -93,6 +130,7 @@ public class WeightedHyperLogLog{
         this.m = 1 << p;
         this.noBias = hllBuilder.noBias;
         this.bitPacking = hllBuilder.bitPacking;
+        this.tracer = hllBuilder.tracer;
 
         // the threshold should be less than 12K bytes for p = 14.
         // The reason to divide by 5 is, in sparse mode after serialization the
@@ -117,8 +155,8 @@ public class WeightedHyperLogLog{
         this.cachedCount = -1;
         this.invalidateCount = false;
         this.encoding = hllBuilder.encoding;
-        if (encoding.equals(HyperLogLog.EncodingType.SPARSE)) {
-            this.sparseRegister = new HLLSparseRegister(p, HLLConstants.P_PRIME_VALUE,
+        if (encoding == WeightedHyperLogLog.EncodingType.SPARSE) {
+            this.sparseRegister = new WHLLSparseRegister(p, HLLConstants.P_PRIME_VALUE,
                     HLLConstants.Q_PRIME_VALUE);
             this.denseRegister = null;
         } else {
@@ -149,7 +187,7 @@ public class WeightedHyperLogLog{
     }
 
     public void addByte(byte val, int weight) {
-        add(Murmur3.hash64(new byte[]{val}), weight);
+        add(Murmur3.hash64(val), weight);
     }
 
     public void addBytes(byte[] val, int weight) {
@@ -157,39 +195,27 @@ public class WeightedHyperLogLog{
     }
 
     public void addShort(short val, int weight) {
-        SHORT_BUFFER.putShort(0, val);
-        add(Murmur3.hash64(SHORT_BUFFER.array()), weight);
+        add(Murmur3.hash64(val), weight);
     }
 
     public void addInt(int val, double weight) {
-        INT_BUFFER.putInt(0, val);
-        try{
-        add(Murmur3.hash64(INT_BUFFER.array()), weight);}
-        catch (NullPointerException e){
-            System.out.println("this elemnt's weight is "+ weight);
-            e.printStackTrace();
-            System.exit(1);
-        }
+        add(Murmur3.hash64(val), weight);
     }
 
     public void addLong(long val, int weight) {
-        LONG_BUFFER.putLong(0, val);
-        add(Murmur3.hash64(LONG_BUFFER.array()),weight);
+        add(Murmur3.hash64(val),weight);
     }
 
     public void addFloat(float val, int weight) {
-        INT_BUFFER.putFloat(0, val);
-        add(Murmur3.hash64(INT_BUFFER.array()), weight);
+        add(Murmur3.hash64(val), weight);
     }
 
     public void addDouble(double val, int weight) {
-        LONG_BUFFER.putDouble(0, val);
-        add(Murmur3.hash64(LONG_BUFFER.array()),weight);
+        add(Murmur3.hash64(val),weight);
     }
 
     public void addChar(char val, int weight) {
-        SHORT_BUFFER.putChar(0, val);
-        add(Murmur3.hash64(SHORT_BUFFER.array()),weight);
+        add(Murmur3.hash64(val),weight);
     }
 
     /**
@@ -206,21 +232,24 @@ public class WeightedHyperLogLog{
     }
 
     public void add(long hashcode, double weight) {
-        if (encoding.equals(HyperLogLog.EncodingType.SPARSE)) {
-            if (sparseRegister.add(hashcode)) {
+        if (encoding == WeightedHyperLogLog.EncodingType.SPARSE) {
+            if (sparseRegister.add(hashcode, weight)) {
                 invalidateCount = true;
             }
 
             // if size of sparse map excess the threshold convert the sparse map to
             // dense register and switch to DENSE encoding
             if (sparseRegister.getSize() > encodingSwitchThreshold) {
+                if (tracer != null) {
+                    tracer.onEncodingSwitch(sparseRegister.getSize());
+                }
                 encoding = WeightedHyperLogLog.EncodingType.DENSE;
-                denseRegister = sparseToDenseRegister(sparseRegister); //TODO: solve
+                denseRegister = sparseToDenseRegister(sparseRegister);
                 sparseRegister = null;
                 invalidateCount = true;
             }
         } else {
-            if (denseRegister.my_add(hashcode, weight)) {
+            if (denseRegister.add(hashcode, weight)) {
                 invalidateCount = true;
             }
         }
@@ -231,62 +260,87 @@ public class WeightedHyperLogLog{
         // compute count only if the register values are updated else return the
         // cached count
         if (invalidateCount || cachedCount < 0) {
-            if (encoding.equals(HyperLogLog.EncodingType.SPARSE)) {
+            double sum;
+            long numZeros;
+            if (encoding == WeightedHyperLogLog.EncodingType.SPARSE) {
+
+                // linear counting on pPrime bits register index would count the
+                // distinct elements and ignore their weights. Instead the entries are
+                // folded to the register values for p bits register index, which are
+                // the registers that DENSE encoding would have.
+                int[] sparseList = sparseRegister.getSparseList();
+                int sparseListSize = sparseRegister.getSparseListSize();
+                int[] entries = new int[sparseListSize];
+                for (int i = 0; i < sparseListSize; i++) {
+                    int idx = (sparseList[i] >>> HLLConstants.Q_PRIME_VALUE) & (m - 1);
+                    entries[i] = (idx << HLLConstants.Q_PRIME_VALUE) | (sparseList[i] & 0x3f);
+                }
 
-                // if encoding is still SPARSE use linear counting with increase
-                // accuracy (as we use pPrime bits for register index)
-                int mPrime = 1 << sparseRegister.getPPrime();
-                cachedCount = linearCount(mPrime, mPrime - sparseRegister.getSparseMap().size());
+                // after sorting, entries of the same register index are adjacent
+                // with the largest value last
+                Arrays.sort(entries);
+                sum = 0;
+                numZeros = m;
+                for (int i = 0; i < sparseListSize; i++) {
+                    if (i + 1 < sparseListSize
+                            && (entries[i + 1] >>> HLLConstants.Q_PRIME_VALUE) == (entries[i] >>> HLLConstants.Q_PRIME_VALUE)) {
+                        continue;
+                    }
+                    sum += HLLConstants.inversePow2Data[entries[i] & 0x3f];
+                    numZeros--;
+                }
+                sum += numZeros;
             } else {
-                System.out.println("I am here");
-                // for DENSE encoding, use bias table lookup for HLLNoBias algorithm
-                // else fallback to HLLOriginal algorithm
-                double sum = denseRegister.getSumInversePow2();
-                long numZeros = denseRegister.getNumZeroes();
-                System.out.println("The estimators denominator is :"+ sum);
-                // cardinality estimate from normalized bias corrected harmonic mean on
-                // the registers
-                cachedCount = (long) (alphaMM * (1.0 / sum));
-
-                long pow = (long) Math.pow(2, chosenHashBits);
-                // when bias correction is enabled
-                if (noBias) {
-                    System.out.println("I am correcting a bias for cachedCount "+cachedCount);
-                    cachedCount = cachedCount <= 5 * m ? (cachedCount - estimateBias(cachedCount))
-                            : cachedCount;
-                    long h = cachedCount;
+                sum = denseRegister.getSumInversePow2();
+                numZeros = denseRegister.getNumZeroes();
+            }
+
+            // use bias table lookup for HLLNoBias algorithm else fallback to
+            // HLLOriginal algorithm
+            // cardinality estimate from normalized bias corrected harmonic mean on
+            // the registers
+            cachedCount = (long) (alphaMM * (1.0 / sum));
+            final long rawCount = cachedCount;
+
+            long pow = (long) Math.pow(2, chosenHashBits);
+            // when bias correction is enabled
+            if (noBias) {
+                cachedCount = cachedCount <= 5 * m ? (cachedCount - HLLBiasCorrection.estimateBias(p, cachedCount))
+                        : cachedCount;
+                long h = cachedCount;
+                if (numZeros != 0) {
+                    h = linearCount(m, numZeros);
+                }
+
+                if (h < getThreshold()) {
+                    cachedCount = h;
+                }
+            } else {
+                // HLL algorithm shows stronger bias for values in (2.5 * m) range.
+                // To compensate for this short range bias, linear counting is used
+                // for values before this short range. The original paper also says
+                // similar bias is seen for long range values due to hash collisions
+                // in range >1/30*(2^32). For the default case, we do not have to
+                // worry about this long range bias as the paper used 32-bit hashing
+                // and we use 64-bit hashing as default. 2^64 values are too high to
+                // observe long range bias (hash collisions).
+                if (cachedCount <= 2.5 * m) {
+
+                    // for short range use linear counting
                     if (numZeros != 0) {
-                        h = linearCount(m, numZeros);
+                        cachedCount = linearCount(m, numZeros);
                     }
+                } else if (chosenHashBits < 64 && cachedCount > (0.033333 * pow)) {
 
-                    if (h < getThreshold()) {
-                        cachedCount = h;
-                    }
-                } else {
-                    // HLL algorithm shows stronger bias for values in (2.5 * m) range.
-                    // To compensate for this short range bias, linear counting is used
-                    // for values before this short range. The original paper also says
-                    // similar bias is seen for long range values due to hash collisions
-                    // in range >1/30*(2^32). For the default case, we do not have to
-                    // worry about this long range bias as the paper used 32-bit hashing
-                    // and we use 64-bit hashing as default. 2^64 values are too high to
-                    // observe long range bias (hash collisions).
-                    if (cachedCount <= 2.5 * m) {
-
-                        // for short range use linear counting
-                        if (numZeros != 0) {
-                            System.out.println("here");
-                            cachedCount = linearCount(m, numZeros);
-                        }
-                    } else if (chosenHashBits < 64 && cachedCount > (0.033333 * pow)) {
-
-                        // long range bias for 32-bit hashcodes
-                        if (cachedCount > (1 / 30) * pow) {
-                            cachedCount = (long) (-pow * Math.log(1.0 - (double) cachedCount / (double) pow));
-                        }
+                    // long range bias for 32-bit hashcodes
+                    if (cachedCount > (1 / 30) * pow) {
+                        cachedCount = (long) (-pow * Math.log(1.0 - (double) cachedCount / (double) pow));
                     }
                 }
             }
+            if (tracer != null) {
+                tracer.onCount(encoding, sum, numZeros, rawCount, cachedCount);
+            }
             invalidateCount = false;
         }
 
@@ -297,41 +351,6 @@ public class WeightedHyperLogLog{
         return (long) (HLLConstants.thresholdData[p - 4] + 0.5);
     }
 
-    /**
-     * Estimate bias from lookup table
-     * @param count
-     *          - cardinality before bias correction
-     * @return cardinality after bias correction
-     */
-    private long estimateBias(long count) {
-        double[] rawEstForP = HLLConstants.rawEstimateData[p - 4];
-
-        // compute distance and store it in sorted map
-        Double2IntSortedMap estIndexMap = new Double2IntAVLTreeMap();
-        double distance = 0;
-        for (int i = 0; i < rawEstForP.length; i++) {
-            distance = Math.pow(count - rawEstForP[i], 2);
-            estIndexMap.put(distance, i);
-        }
-
-        // take top-k closest neighbors and compute the bias corrected cardinality
-        long result = 0;
-        double[] biasForP = HLLConstants.biasData[p - 4];
-        double biasSum = 0;
-        int kNeighbors = HLLConstants.K_NEAREST_NEIGHBOR;
-        for (Map.Entry<Double, Integer> entry : estIndexMap.entrySet()) {
-            biasSum += biasForP[entry.getValue()];
-            kNeighbors--;
-            if (kNeighbors <= 0) {
-                break;
-            }
-        }
-
-        // 0.5 added for rounding off
-        result = (long) ((biasSum / HLLConstants.K_NEAREST_NEIGHBOR) + 0.5);
-        return result;
-    }
-
     public void setCount(long count) {
         this.cachedCount = count;
         this.invalidateCount = true;
@@ -360,45 +379,161 @@ public class WeightedHyperLogLog{
      *          - uncompressed and delta decoded integer list
      */
     public void setHLLSparseRegister(int[] reg) {
-        for (int i : reg) {
-            int key = i >>> HLLConstants.Q_PRIME_VALUE;
-            byte value = (byte) (i & 0x3f);
-            sparseRegister.set(key, value);
+        boolean sorted = true;
+        for (int i = 1; i < reg.length && sorted; i++) {
+            sorted = (reg[i - 1] >>> HLLConstants.Q_PRIME_VALUE) < (reg[i] >>> HLLConstants.Q_PRIME_VALUE);
         }
+        if (sorted) {
+            sparseRegister.mergeSorted(reg, reg.length);
+        } else {
+            for (int i : reg) {
+                int key = i >>> HLLConstants.Q_PRIME_VALUE;
+                byte value = (byte) (i & 0x3f);
+                sparseRegister.set(key, value);
+            }
+        }
+        invalidateCount = true;
     }
 
     /**
-     * Reconstruct dense registers from byte array
+     * Reconstruct dense registers from byte array. If all registers are zero,
+     * the array is adopted as the register (and must not be modified by the
+     * caller afterwards), else the registers are merged with it.
      * @param reg
      *          - unpacked byte array
      */
     public void setHLLDenseRegister(byte[] reg) {
-        int i = 0;
-        for (byte b : reg) {
-            denseRegister.set(i, b);
-            i++;
+        if (reg.length != m) {
+            int i = 0;
+            for (byte b : reg) {
+                denseRegister.set(i, b);
+                i++;
+            }
+        } else if (denseRegister.getNumZeroes() == m) {
+            denseRegister.setRegister(reg);
+        } else {
+            byte[] register = denseRegister.getRegister();
+            HLLDenseRegister.maxRegisters(register, reg);
+            denseRegister.setRegister(register);
         }
+        invalidateCount = true;
     }
 
     /**
-     * Converts sparse to dense hll register
+     * Merge the specified weighted hyperloglog to the current one. Encoding
+     * switches automatically after merge if the encoding switch threshold is
+     * exceeded. A hyperloglog with larger p is squashed before merging.
+     * @param hll
+     *          - weighted hyperloglog to be merged
+     * @throws IllegalArgumentException - throw when incompatible HLL are tried to be merged
+     */
+    public void merge(WeightedHyperLogLog hll) {
+        if (chosenHashBits != hll.chosenHashBits) {
+            throw new IllegalArgumentException(
+                    "WeightedHyperLogLog cannot be merged as either p or hashbits are different. Current: "
+                            + toString() + " Provided: " + hll.toString());
+        }
+        if (p > hll.p) {
+            throw new IllegalArgumentException(
+                    "WeightedHyperLogLog cannot merge a smaller p into a larger one : "
+                            + toString() + " Provided: " + hll.toString());
+        }
+        if (p != hll.p) {
+            // invariant: p < hll.p
+            hll = hll.squash(p);
+        }
+
+        WeightedHyperLogLog.EncodingType otherEncoding = hll.getEncoding();
+
+        if (encoding == WeightedHyperLogLog.EncodingType.SPARSE
+                && otherEncoding == WeightedHyperLogLog.EncodingType.SPARSE) {
+            sparseRegister.merge(hll.getHLLSparseRegister());
+            // if after merge the sparse switching threshold is exceeded then change
+            // to dense encoding
+            if (sparseRegister.getSize() > encodingSwitchThreshold) {
+                if (tracer != null) {
+                    tracer.onEncodingSwitch(sparseRegister.getSize());
+                }
+                encoding = WeightedHyperLogLog.EncodingType.DENSE;
+                denseRegister = sparseToDenseRegister(sparseRegister);
+                sparseRegister = null;
+            }
+        } else if (encoding == WeightedHyperLogLog.EncodingType.DENSE
+                && otherEncoding == WeightedHyperLogLog.EncodingType.DENSE) {
+            denseRegister.merge(hll.getHLLDenseRegister());
+        } else if (encoding == WeightedHyperLogLog.EncodingType.SPARSE
+                && otherEncoding == WeightedHyperLogLog.EncodingType.DENSE) {
+            if (tracer != null) {
+                tracer.onEncodingSwitch(sparseRegister.getSize());
+            }
+            denseRegister = sparseToDenseRegister(sparseRegister);
+            denseRegister.merge(hll.getHLLDenseRegister());
+            sparseRegister = null;
+            encoding = WeightedHyperLogLog.EncodingType.DENSE;
+        } else if (encoding == WeightedHyperLogLog.EncodingType.DENSE
+                && otherEncoding == WeightedHyperLogLog.EncodingType.SPARSE) {
+            // fold the sparse entries into the registers without a temporary
+            // dense register
+            HLLSparseRegister otherSparseRegister = hll.getHLLSparseRegister();
+            denseRegister.foldSparse(otherSparseRegister.getSparseList(),
+                    otherSparseRegister.getSparseListSize());
+        }
+
+        invalidateCount = true;
+    }
+
+    /**
+     * Reduces the accuracy of the weighted hyperloglog to allow merging with
+     * weighted hyperloglogs of smaller p. As the weighted register values do not
+     * depend on p, the result is the same as adding the elements to a weighted
+     * hyperloglog with p0 register index bits.
+     * @param p0
+     *          - new p size for the new WeightedHyperLogLog (smaller or no change)
+     * @return reduced (or same) WeightedHyperLogLog instance
+     */
+    public WeightedHyperLogLog squash(final int p0) {
+        if (p0 > p) {
+            throw new IllegalArgumentException(
+                    "WeightedHyperLogLog cannot be be squashed to be bigger. Current: "
+                            + toString() + " Provided: " + p0);
+        }
+
+        if (p0 == p) {
+            return this;
+        }
+
+        final WeightedHyperLogLog hll = new WHLLBuilder()
+                .setNumRegisterIndexBits(p0).setEncoding(WeightedHyperLogLog.EncodingType.DENSE)
+                .enableNoBias(noBias).enableBitPacking(bitPacking).setTracer(tracer).build();
+        final WHLLDenseRegister result = hll.denseRegister;
+        final int mask = (1 << p0) - 1;
+
+        if (encoding == WeightedHyperLogLog.EncodingType.SPARSE) {
+            // the low p0 bits of the sparse entry keys are the register index
+            result.foldSparse(sparseRegister.getSparseList(), sparseRegister.getSparseListSize());
+        } else {
+            byte[] register = denseRegister.getRegister();
+            for (int i = 0; i < register.length; i++) {
+                result.set(i & mask, register[i]);
+            }
+        }
+        return hll;
+    }
+
+    /**
+     * Converts sparse to dense hll register. The sparse entries already hold
+     * the weighted register values for p bits register index, so retaining the
+     * largest value per register index is lossless.
      * @param sparseRegister
      *          - sparse register to be converted
      * @return converted dense register
      */
-    //TODO: check behaviour because you did modifications without too much thinking
     private WHLLDenseRegister sparseToDenseRegister(HLLSparseRegister sparseRegister) {
         if (sparseRegister == null) {
             return null;
         }
-        int p = sparseRegister.getP();
-        int pMask = (1 << p) - 1;
-        WHLLDenseRegister result = new WHLLDenseRegister(p, bitPacking);
-        for (Map.Entry<Integer, Byte> entry : sparseRegister.getSparseMap().entrySet()) {
-            int key = entry.getKey();
-            int idx = key & pMask;
-            result.set(idx, entry.getValue());
-        }
+        WHLLDenseRegister result = new WHLLDenseRegister(sparseRegister.getP(), bitPacking);
+        result.foldSparse(sparseRegister.getSparseList(), sparseRegister.getSparseListSize());
         return result;
     }
 
@@ -416,9 +551,9 @@ public class WeightedHyperLogLog{
     }
 
     public String toStringExtended() {
-        if (encoding.equals(HyperLogLog.EncodingType.DENSE)) {
+        if (encoding == WeightedHyperLogLog.EncodingType.DENSE) {
             return toString() + ", " + denseRegister.toExtendedString();
-        } else if (encoding.equals(HyperLogLog.EncodingType.SPARSE)) {
+        } else if (encoding == WeightedHyperLogLog.EncodingType.SPARSE) {
             return toString() + ", " + sparseRegister.toExtendedString();
         }
 
@@ -439,6 +574,27 @@ public class WeightedHyperLogLog{
 
 
 
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof WeightedHyperLogLog)) {
+            return false;
+        }
+
+        WeightedHyperLogLog other = (WeightedHyperLogLog) obj;
+        long count = count();
+        long otherCount = other.count();
+        boolean result = p == other.p && chosenHashBits == other.chosenHashBits
+                && encoding == other.encoding && count == otherCount;
+        if (encoding == WeightedHyperLogLog.EncodingType.DENSE) {
+            result = result && denseRegister.equals(other.getHLLDenseRegister());
+        }
+
+        if (encoding == WeightedHyperLogLog.EncodingType.SPARSE) {
+            result = result && sparseRegister.equals(other.getHLLSparseRegister());
+        }
+        return result;
+    }
+
     @Override
     public int hashCode() {
         int hashcode = 0;
@@ -446,11 +602,11 @@ public class WeightedHyperLogLog{
         hashcode += 31 * chosenHashBits;
         hashcode += encoding.hashCode();
         hashcode += 31 * count();
-        if (encoding.equals(HyperLogLog.EncodingType.DENSE)) {
+        if (encoding == WeightedHyperLogLog.EncodingType.DENSE) {
             hashcode += 31 * denseRegister.hashCode();
         }
 
-        if (encoding.equals(HyperLogLog.EncodingType.SPARSE)) {
+        if (encoding == WeightedHyperLogLog.EncodingType.SPARSE) {
             hashcode += 31 * sparseRegister.hashCode();
         }
         return hashcode;
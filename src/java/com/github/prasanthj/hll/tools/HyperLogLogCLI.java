@@ -46,6 +46,8 @@ public class HyperLogLogCLI {
     boolean bitPack = true;
     boolean noBias = true;
     boolean printRelativeError = false;
+    boolean mmap = false;
+    int numThreads = Runtime.getRuntime().availableProcessors();
     int unique = -1;
     String filePath = null;
     BufferedReader br = null;
@@ -94,9 +96,28 @@ public class HyperLogLogCLI {
         bitPack = Boolean.parseBoolean(cli.getOptionValue('b'));
       }
 
+      if (cli.hasOption('m')) {
+        mmap = true;
+        if (!cli.hasOption('f')) {
+          System.err.println("Specify input file. Example usage: hll -m -f /tmp/input.txt");
+          usage(options);
+          return;
+        }
+      }
+
+      if (cli.hasOption('w')) {
+        numThreads = Integer.parseInt(cli.getOptionValue('w'));
+        if (numThreads < 1) {
+          System.out.println("Warning! Out-of-range value specified for threads. Using 1 thread.");
+          numThreads = 1;
+        }
+      }
+
       if (cli.hasOption('f')) {
         filePath = cli.getOptionValue('f');
-        br = new BufferedReader(new FileReader(new File(filePath)));
+        if (!mmap) {
+          br = new BufferedReader(new FileReader(new File(filePath)));
+        }
       }
 
       if (filePath != null && cli.hasOption('n')) {
@@ -108,7 +129,12 @@ public class HyperLogLogCLI {
       }
 
       if (cli.hasOption('r')) {
-        printRelativeError  = true;
+        if (mmap) {
+          // exact count needs every distinct line in memory
+          System.out.println("'-m' (memory mapped input) specified. Ignoring -r.");
+        } else {
+          printRelativeError  = true;
+        }
       }
 
       if (cli.hasOption('s')) {
@@ -147,8 +173,25 @@ public class HyperLogLogCLI {
       }
 
       // construct hll and serialize it if required
-      HyperLogLog hll = HyperLogLog.builder().enableBitPacking(bitPack).enableNoBias(noBias)
-          .setEncoding(enc).setNumRegisterIndexBits(p).build();
+      HyperLogLog.HyperLogLogBuilder builder = HyperLogLog.builder().enableBitPacking(bitPack)
+          .enableNoBias(noBias).setEncoding(enc).setNumRegisterIndexBits(p);
+      HyperLogLog hll;
+
+      if (mmap) {
+        ParallelFileLoader loader = new ParallelFileLoader(builder, numThreads);
+        long start = System.nanoTime();
+        hll = loader.load(new File(filePath));
+        long end = System.nanoTime();
+        double seconds = Math.max(end - start, 1) / 1e9;
+        System.out.println("Threads: " + numThreads);
+        System.out.println("Lines read: " + loader.getNumLines());
+        System.out.println("Bytes read: " + loader.getNumBytes());
+        System.out.println("Load time: " + (end - start) / 1000000 + " ms");
+        System.out.println("Lines/sec: " + (long) (loader.getNumLines() / seconds));
+        System.out.println("Bytes/sec: " + (long) (loader.getNumBytes() / seconds));
+      } else {
+        hll = builder.build();
+      }
 
       if (br != null) {
         Set<String> hashset = new HashSet<String>();
@@ -163,7 +206,7 @@ public class HyperLogLogCLI {
         }
 
         n = hashset.size();
-      } else {
+      } else if (!mmap) {
         Random rand = new Random(seed);
         for (int i = 0; i < n; i++) {
           if (unique < 0) {
@@ -225,6 +268,10 @@ public class HyperLogLogCLI {
     options.addOption("i", "input-file", true, "specify input file for deserialization");
     options.addOption("t", "standard-in", false, "read data from standard in");
     options.addOption("r", "relative-error", false, "print relative error calculation");
+    options.addOption("m", "mmap", false, "memory map the input file specified by -f and"
+        + " read it using multiple threads");
+    options.addOption("w", "num-threads", true, "number of threads used to read a memory"
+        + " mapped input file. default = number of processors");
   }
 
   static void usage(Options options) {
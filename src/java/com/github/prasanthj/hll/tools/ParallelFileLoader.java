@@ -0,0 +1,280 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll.tools;
+
+import com.github.prasanthj.hll.HLLConstants;
+import com.github.prasanthj.hll.HyperLogLog;
+import com.github.prasanthj.hll.Murmur3;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <pre>
+ * Adds every line of a file to a hyperloglog using multiple threads.
+ *
+ * The file is split into fixed size chunks that the threads pick up one at a
+ * time. A chunk owns the lines that start in it, so chunk boundaries are moved
+ * forward to the next line start. Each chunk is memory mapped and its lines
+ * are hashed as raw bytes into a hyperloglog per thread, without creating a
+ * String per line. The per thread hyperloglogs are unioned at the end.
+ *
+ * Lines are terminated by '\n', '\r' or "\r\n" like BufferedReader.readLine().
+ * For UTF-8 input on a platform with UTF-8 default charset the result is the
+ * same as calling addString() for every line read by BufferedReader.
+ * </pre>
+ */
+public final class ParallelFileLoader {
+
+  // files are split into chunks of this size
+  static final int DEFAULT_CHUNK_SIZE = 64 << 20;
+
+  // lines are copied from the mapping to the heap in blocks of this size
+  private static final int BLOCK_SIZE = 1 << 20;
+
+  // largest region that is mapped at once
+  private static final int MAX_MAP_SIZE = 1 << 30;
+
+  private final HyperLogLog.HyperLogLogBuilder builder;
+  private final int numThreads;
+  private final int chunkSize;
+  private long numLines;
+  private long numBytes;
+
+  /**
+   * @param builder
+   *          - builder for the hyperloglog of each thread
+   * @param numThreads
+   *          - number of threads to read the file with
+   */
+  public ParallelFileLoader(HyperLogLog.HyperLogLogBuilder builder, int numThreads) {
+    this(builder, numThreads, DEFAULT_CHUNK_SIZE);
+  }
+
+  ParallelFileLoader(HyperLogLog.HyperLogLogBuilder builder, int numThreads, int chunkSize) {
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("Number of threads must be positive: " + numThreads);
+    }
+    this.builder = builder;
+    this.numThreads = numThreads;
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * @return number of lines read by the last load()
+   */
+  public long getNumLines() {
+    return numLines;
+  }
+
+  /**
+   * @return number of bytes read by the last load()
+   */
+  public long getNumBytes() {
+    return numBytes;
+  }
+
+  /**
+   * Adds every line of the file to a new hyperloglog.
+   * @param file
+   *          - file to read
+   * @return hyperloglog of all lines in the file
+   * @throws IOException - thrown when the file cannot be read
+   */
+  public HyperLogLog load(File file) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      FileChannel channel = raf.getChannel();
+      long size = channel.size();
+      long numChunks = (size + chunkSize - 1) / chunkSize;
+      if (numChunks > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("File is too large for chunk size " + chunkSize);
+      }
+      AtomicInteger nextChunk = new AtomicInteger();
+      List<Worker> workers = new ArrayList<Worker>(numThreads);
+      for (int i = 0; i < numThreads; i++) {
+        workers.add(new Worker(builder.build(), channel, size, (int) numChunks, nextChunk));
+      }
+
+      if (numThreads == 1) {
+        workers.get(0).call();
+      } else {
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+          for (Future<Void> future : executor.invokeAll(workers)) {
+            future.get();
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while reading " + file);
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+          }
+          throw new RuntimeException(e.getCause());
+        } finally {
+          executor.shutdownNow();
+        }
+      }
+
+      List<HyperLogLog> hlls = new ArrayList<HyperLogLog>(numThreads);
+      long lines = 0;
+      for (Worker worker : workers) {
+        hlls.add(worker.hll);
+        lines += worker.numLines;
+      }
+      this.numLines = lines;
+      this.numBytes = size;
+      return hlls.size() == 1 ? hlls.get(0) : HyperLogLog.union(hlls);
+    }
+  }
+
+  private final class Worker implements Callable<Void> {
+    private final HyperLogLog hll;
+    private final FileChannel channel;
+    private final long size;
+    private final int numChunks;
+    private final AtomicInteger nextChunk;
+    private final ByteBuffer probe = ByteBuffer.allocate(8192);
+    private final long[] hashcodes = new long[HLLConstants.TEMP_LIST_DEFAULT_SIZE];
+    private int numHashcodes;
+    private byte[] block = new byte[BLOCK_SIZE];
+    private long numLines;
+
+    Worker(HyperLogLog hll, FileChannel channel, long size, int numChunks,
+        AtomicInteger nextChunk) {
+      this.hll = hll;
+      this.channel = channel;
+      this.size = size;
+      this.numChunks = numChunks;
+      this.nextChunk = nextChunk;
+    }
+
+    @Override
+    public Void call() throws IOException {
+      int chunk;
+      while ((chunk = nextChunk.getAndIncrement()) < numChunks) {
+        long start = nextLineStart((long) chunk * chunkSize);
+        long end = nextLineStart(Math.min(size, (long) (chunk + 1) * chunkSize));
+        if (start < end) {
+          addLines(start, end);
+        }
+      }
+      hll.addHashes(hashcodes, 0, numHashcodes);
+      numHashcodes = 0;
+      return null;
+    }
+
+    // first line start at or after pos, which is just past the first line
+    // terminator at or after pos - 1
+    private long nextLineStart(long pos) throws IOException {
+      if (pos == 0 || pos >= size) {
+        return pos;
+      }
+      long filePos = pos - 1;
+      boolean afterCR = false;
+      while (filePos < size) {
+        probe.clear();
+        int n = channel.read(probe, filePos);
+        for (int i = 0; i < n; i++) {
+          byte b = probe.get(i);
+          if (afterCR) {
+            return b == '\n' ? filePos + i + 1 : filePos + i;
+          }
+          if (b == '\n') {
+            return filePos + i + 1;
+          }
+          afterCR = b == '\r';
+        }
+        filePos += n;
+      }
+      return size;
+    }
+
+    // hashes the lines in [start, end). end is a line start or end of file.
+    private void addLines(long start, long end) throws IOException {
+      int length = 0;
+      int lineStart = 0;
+      boolean afterCR = false;
+      for (long pos = start; pos < end;) {
+        int mapSize = (int) Math.min(MAX_MAP_SIZE, end - pos);
+        MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, pos, mapSize);
+        pos += mapSize;
+        while (mapping.hasRemaining()) {
+          // keep the partial line at the end of the block and refill the rest
+          if (lineStart > 0) {
+            System.arraycopy(block, lineStart, block, 0, length - lineStart);
+            length -= lineStart;
+            lineStart = 0;
+          } else if (length == block.length) {
+            block = Arrays.copyOf(block, block.length * 2);
+          }
+          int scan = length;
+          int n = Math.min(block.length - length, mapping.remaining());
+          mapping.get(block, length, n);
+          length += n;
+
+          for (int i = scan; i < length; i++) {
+            byte b = block[i];
+            if (afterCR) {
+              afterCR = false;
+              if (b == '\n') {
+                lineStart = i + 1;
+                continue;
+              }
+            }
+            if (b == '\n' || b == '\r') {
+              addLine(lineStart, i - lineStart);
+              lineStart = i + 1;
+              afterCR = b == '\r';
+            }
+          }
+          if (lineStart == length) {
+            lineStart = 0;
+            length = 0;
+          }
+        }
+      }
+      // last line of the file without line terminator
+      if (lineStart < length) {
+        addLine(lineStart, length - lineStart);
+      }
+    }
+
+    private void addLine(int offset, int length) {
+      hashcodes[numHashcodes++] = Murmur3.hash64(block, offset, length, Murmur3.DEFAULT_SEED);
+      if (numHashcodes == hashcodes.length) {
+        hll.addHashes(hashcodes, 0, numHashcodes);
+        numHashcodes = 0;
+      }
+      numLines++;
+    }
+  }
+}
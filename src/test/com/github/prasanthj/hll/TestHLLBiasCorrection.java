@@ -0,0 +1,87 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import it.unimi.dsi.fastutil.doubles.Double2IntAVLTreeMap;
+import it.unimi.dsi.fastutil.doubles.Double2IntSortedMap;
+
+public class TestHLLBiasCorrection {
+
+  // reference implementation using a distance keyed sorted map
+  private static long estimateBiasWithSortedMap(int p, long count) {
+    double[] rawEstForP = HLLConstants.rawEstimateData[p - 4];
+    Double2IntSortedMap estIndexMap = new Double2IntAVLTreeMap();
+    for (int i = 0; i < rawEstForP.length; i++) {
+      estIndexMap.put(Math.pow(count - rawEstForP[i], 2), i);
+    }
+
+    double[] biasForP = HLLConstants.biasData[p - 4];
+    double biasSum = 0;
+    int kNeighbors = HLLConstants.K_NEAREST_NEIGHBOR;
+    for (Map.Entry<Double, Integer> entry : estIndexMap.entrySet()) {
+      biasSum += biasForP[entry.getValue()];
+      kNeighbors--;
+      if (kNeighbors <= 0) {
+        break;
+      }
+    }
+    return (long) ((biasSum / HLLConstants.K_NEAREST_NEIGHBOR) + 0.5);
+  }
+
+  @Test
+  public void testEstimateBiasMatchesSortedMap() {
+    Random rand = new Random(123);
+    for (int p = HLLConstants.MIN_P_VALUE; p <= HLLConstants.MAX_P_VALUE; p++) {
+      int m = 1 << p;
+
+      // every count in the bias correction range for small p, sampled for large p
+      int step = Math.max(1, (5 * m) / 20000);
+      for (long count = 0; count <= 5 * m; count += step) {
+        assertEquals("p: " + p + " count: " + count, estimateBiasWithSortedMap(p, count),
+          HLLBiasCorrection.estimateBias(p, count));
+      }
+      for (int i = 0; i < 1000; i++) {
+        long count = rand.nextInt(6 * m);
+        assertEquals("p: " + p + " count: " + count, estimateBiasWithSortedMap(p, count),
+          HLLBiasCorrection.estimateBias(p, count));
+      }
+    }
+  }
+
+  @Test
+  public void testEstimateBiasEquidistantNeighbors() {
+    // counts placed exactly between two raw estimates
+    for (int p = HLLConstants.MIN_P_VALUE; p <= HLLConstants.MAX_P_VALUE; p++) {
+      double[] raw = HLLConstants.rawEstimateData[p - 4];
+      for (int i = 1; i < raw.length; i++) {
+        double mid = (raw[i - 1] + raw[i]) / 2;
+        if (mid == Math.floor(mid)) {
+          long count = (long) mid;
+          assertEquals("p: " + p + " count: " + count, estimateBiasWithSortedMap(p, count),
+            HLLBiasCorrection.estimateBias(p, count));
+        }
+      }
+    }
+  }
+}
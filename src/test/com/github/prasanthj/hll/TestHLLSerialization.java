@@ -18,15 +18,22 @@
 
 package com.github.prasanthj.hll;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import com.github.prasanthj.hll.HyperLogLog.EncodingType;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
@@ -265,4 +272,103 @@ public class TestHLLSerialization {
     assertEquals(hashset.size(), hll.count(), delta);
     assertEquals(hashset.size(), deserializedHLL.count(), delta);
   }
+
+  @Test
+  public void testHLLSerializationBulkIO() throws IOException {
+    for (EncodingType encoding : EncodingType.values()) {
+      HyperLogLog hll = HyperLogLog.builder().setEncoding(encoding).build();
+      Random rand = new Random(SEED);
+      for (int i = 0; i < size; i++) {
+        hll.addLong(rand.nextLong());
+      }
+
+      // registers are written with a single write call
+      final int[] numWrites = new int[1];
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream() {
+        @Override
+        public synchronized void write(int b) {
+          numWrites[0]++;
+          super.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+          numWrites[0]++;
+          super.write(b, off, len);
+        }
+      };
+      HyperLogLogUtils.serializeHLL(bytes, hll);
+      assertEquals(1, numWrites[0]);
+
+      // a second hyperloglog follows the first one in the stream. Reads return
+      // short counts and must not read past the first hyperloglog.
+      HyperLogLog hll2 = HyperLogLog.builder().setEncoding(encoding).build();
+      hll2.addLong(SEED);
+      HyperLogLogUtils.serializeHLL(bytes, hll2);
+      InputStream in = new ByteArrayInputStream(bytes.toByteArray()) {
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+          return super.read(b, off, Math.min(len, 3));
+        }
+      };
+      HyperLogLog deserializedHLL = HyperLogLogUtils.deserializeHLL(in);
+      assertEquals(hll, deserializedHLL);
+      assertEquals(hll.count(), deserializedHLL.count());
+      HyperLogLog deserializedHLL2 = HyperLogLogUtils.deserializeHLL(in);
+      assertEquals(hll2, deserializedHLL2);
+      assertEquals(-1, in.read());
+    }
+  }
+
+  @Test
+  public void testHLLByteBufferSerialization() throws IOException {
+    for (EncodingType encoding : EncodingType.values()) {
+      for (boolean bitPacking : new boolean[] { true, false }) {
+        HyperLogLog hll = HyperLogLog.builder().setEncoding(encoding).enableBitPacking(bitPacking)
+            .build();
+        Random rand = new Random(SEED);
+        for (int i = 0; i < size; i++) {
+          hll.addLong(rand.nextLong());
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HyperLogLogUtils.serializeHLL(out, hll);
+        byte[] expected = out.toByteArray();
+        int serializedSize = HyperLogLogUtils.serializedSize(hll);
+        assertEquals(expected.length, serializedSize);
+
+        // heap and direct buffers in both byte orders, not starting at 0
+        // and with the hyperloglog ending exactly at the limit
+        ByteBuffer[] buffers = { ByteBuffer.allocate(serializedSize + 5),
+            ByteBuffer.allocateDirect(serializedSize + 5),
+            ByteBuffer.allocate(serializedSize + 5).order(ByteOrder.LITTLE_ENDIAN),
+            ByteBuffer.allocateDirect(serializedSize + 5).order(ByteOrder.LITTLE_ENDIAN) };
+        for (ByteBuffer buffer : buffers) {
+          buffer.position(5);
+          HyperLogLogUtils.serializeHLL(buffer, hll);
+          assertEquals(buffer.limit(), buffer.position());
+          byte[] actual = new byte[serializedSize];
+          buffer.position(5);
+          buffer.get(actual);
+          assertArrayEquals(expected, actual);
+
+          buffer.position(5);
+          HyperLogLog deserializedHLL = HyperLogLogUtils.deserializeHLL(buffer);
+          assertEquals(buffer.limit(), buffer.position());
+          assertEquals(hll, deserializedHLL);
+          assertEquals(hll.count(), deserializedHLL.count());
+          assertEquals(hll, HyperLogLogUtils.deserializeHLL(new ByteArrayInputStream(expected)));
+        }
+      }
+    }
+  }
+
+  @Test(expected = BufferOverflowException.class)
+  public void testHLLByteBufferOverflow() {
+    HyperLogLog hll = HyperLogLog.builder().build();
+    for (int i = 0; i < size; i++) {
+      hll.addLong(i);
+    }
+    HyperLogLogUtils.serializeHLL(ByteBuffer.allocate(HyperLogLogUtils.serializedSize(hll) - 1),
+        hll);
+  }
 }
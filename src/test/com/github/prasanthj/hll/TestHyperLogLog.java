@@ -19,6 +19,10 @@ package com.github.prasanthj.hll;
 import static org.junit.Assert.assertEquals;
 import com.github.prasanthj.hll.HyperLogLog.EncodingType;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
 import org.junit.Test;
 
 public class TestHyperLogLog {
@@ -331,4 +335,98 @@ public class TestHyperLogLog {
     p14HLL.squash(p10HLL.getNumRegisterIndexBits());
     assertEquals((double) size, p14HLL.count(), longRangeTolerance * size / 100.0);
   }
+
+  @Test
+  public void testAddChars() {
+    HyperLogLog expected = HyperLogLog.builder().build();
+    HyperLogLog actual = HyperLogLog.builder().build();
+    for (int i = 0; i < 10000; i++) {
+      String str = "http://example.com/\u00e9v\u00e9nement/" + i + "/\ud83d\ude00";
+      expected.addBytes(str.getBytes(StandardCharsets.UTF_8));
+      if (i % 3 == 0) {
+        actual.addString(str, StandardCharsets.UTF_8);
+      } else if (i % 3 == 1) {
+        actual.addChars(new StringBuilder(str));
+      } else {
+        actual.addChars(("  " + str).toCharArray(), 2, str.length());
+      }
+    }
+    assertEquals(expected, actual);
+    assertEquals(expected.count(), actual.count());
+  }
+
+  @Test
+  public void testAddByteBuffer() {
+    HyperLogLog expected = HyperLogLog.builder().build();
+    HyperLogLog actual = HyperLogLog.builder().build();
+    Random rand = new Random(123);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+    while (buffer.remaining() >= 40) {
+      byte[] key = new byte[rand.nextInt(40)];
+      rand.nextBytes(key);
+      expected.addBytes(key);
+      int start = buffer.position();
+      buffer.put(key);
+      if (rand.nextBoolean()) {
+        actual.addBytes(buffer, start, key.length);
+      } else {
+        buffer.flip().position(start);
+        actual.addBytes(buffer);
+        buffer.limit(buffer.capacity()).position(start + key.length);
+      }
+    }
+    assertEquals(expected, actual);
+    assertEquals(expected.count(), actual.count());
+  }
+
+  @Test
+  public void testBatchAdds() {
+    Random rand = new Random(123);
+    // sizes below, around and above the SPARSE to DENSE switch
+    int[] sizes = { 0, 1, 100, 1000, 5000, 20000, 100000 };
+    for (EncodingType encoding : EncodingType.values()) {
+      for (int size : sizes) {
+        long[] longs = new long[size + 3];
+        int[] ints = new int[size + 3];
+        byte[][] bytes = new byte[size + 3][];
+        for (int i = 0; i < longs.length; i++) {
+          longs[i] = rand.nextLong();
+          ints[i] = rand.nextInt();
+          bytes[i] = new byte[rand.nextInt(20)];
+          rand.nextBytes(bytes[i]);
+        }
+
+        HyperLogLog expected = HyperLogLog.builder().setEncoding(encoding).build();
+        HyperLogLog actual = HyperLogLog.builder().setEncoding(encoding).build();
+        for (int i = 3; i < longs.length; i++) {
+          expected.addLong(longs[i]);
+        }
+        actual.addLongs(longs, 3, size);
+        assertBatchEquals(expected, actual);
+
+        for (int i = 2; i < ints.length - 1; i++) {
+          expected.addInt(ints[i]);
+        }
+        actual.addInts(ints, 2, size);
+        assertBatchEquals(expected, actual);
+
+        long[] hashes = new long[size];
+        for (int i = 0; i < size; i++) {
+          expected.addBytes(bytes[i]);
+          hashes[i] = Murmur3.hash64(bytes[i]);
+        }
+        actual.addBytes(bytes, 0, size);
+        assertBatchEquals(expected, actual);
+
+        actual.addHashes(hashes, 0, size);
+        assertBatchEquals(expected, actual);
+      }
+    }
+  }
+
+  private static void assertBatchEquals(HyperLogLog expected, HyperLogLog actual) {
+    assertEquals(expected.getEncoding(), actual.getEncoding());
+    assertEquals(expected, actual);
+    assertEquals(expected.count(), actual.count());
+  }
 }
@@ -0,0 +1,153 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+import static org.junit.Assert.assertEquals;
+
+import com.github.prasanthj.hll.HyperLogLog.EncodingType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.ToLongFunction;
+
+import org.junit.Test;
+
+/**
+ * Adds to different hyperloglogs and weighted hyperloglogs from many threads
+ * at once. Every thread must end up with exactly the registers that a single
+ * threaded run produces.
+ */
+public class TestHyperLogLogConcurrency {
+
+  private static final int NUM_THREADS = 16;
+  private static final int NUM_ROUNDS = 4;
+  private static final int SIZE = 50000;
+
+  private static HyperLogLog populate(EncodingType encoding, long seed) {
+    HyperLogLog hll = HyperLogLog.builder().setEncoding(encoding).build();
+    Random rand = new Random(seed);
+    for (int i = 0; i < SIZE; i++) {
+      switch (i % 7) {
+        case 0:
+          hll.addByte((byte) rand.nextInt());
+          break;
+        case 1:
+          hll.addShort((short) rand.nextInt());
+          break;
+        case 2:
+          hll.addChar((char) rand.nextInt());
+          break;
+        case 3:
+          hll.addInt(rand.nextInt());
+          break;
+        case 4:
+          hll.addFloat(rand.nextFloat());
+          break;
+        case 5:
+          hll.addDouble(rand.nextDouble());
+          break;
+        default:
+          hll.addLong(rand.nextLong());
+          break;
+      }
+    }
+    return hll;
+  }
+
+  private static WeightedHyperLogLog populateWeighted(WeightedHyperLogLog.EncodingType encoding,
+      long seed) {
+    WeightedHyperLogLog hll = WeightedHyperLogLog.builder().setEncoding(encoding).build();
+    Random rand = new Random(seed);
+    for (int i = 0; i < SIZE; i++) {
+      switch (i % 6) {
+        case 0:
+          hll.addByte((byte) rand.nextInt(), 1 + rand.nextInt(10));
+          break;
+        case 1:
+          hll.addShort((short) rand.nextInt(), 1 + rand.nextInt(10));
+          break;
+        case 2:
+          hll.addInt(rand.nextInt(), 0.5 + rand.nextDouble() * 10);
+          break;
+        case 3:
+          hll.addDouble(rand.nextDouble(), 1 + rand.nextInt(10));
+          break;
+        case 4:
+          hll.addString("key-" + rand.nextInt(), 1 + rand.nextInt(10));
+          break;
+        default:
+          hll.addLong(rand.nextLong(), 1 + rand.nextInt(10));
+          break;
+      }
+    }
+    return hll;
+  }
+
+  private static <T> void testConcurrentAdds(Callable<T> populate, ToLongFunction<T> count)
+      throws Exception {
+    T expected = populate.call();
+    ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+    try {
+      for (int round = 0; round < NUM_ROUNDS; round++) {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<T>> futures = new ArrayList<Future<T>>();
+        for (int t = 0; t < NUM_THREADS; t++) {
+          futures.add(executor.submit(() -> {
+            start.await();
+            return populate.call();
+          }));
+        }
+        start.countDown();
+        for (Future<T> future : futures) {
+          T actual = future.get();
+          assertEquals(expected, actual);
+          assertEquals(count.applyAsLong(expected), count.applyAsLong(actual));
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testConcurrentAddsDense() throws Exception {
+    testConcurrentAdds(() -> populate(EncodingType.DENSE, 123), HyperLogLog::count);
+  }
+
+  @Test
+  public void testConcurrentAddsSparse() throws Exception {
+    testConcurrentAdds(() -> populate(EncodingType.SPARSE, 123), HyperLogLog::count);
+  }
+
+  @Test
+  public void testConcurrentWeightedAddsDense() throws Exception {
+    testConcurrentAdds(() -> populateWeighted(WeightedHyperLogLog.EncodingType.DENSE, 123),
+        WeightedHyperLogLog::count);
+  }
+
+  @Test
+  public void testConcurrentWeightedAddsSparse() throws Exception {
+    testConcurrentAdds(() -> populateWeighted(WeightedHyperLogLog.EncodingType.SPARSE, 123),
+        WeightedHyperLogLog::count);
+  }
+}
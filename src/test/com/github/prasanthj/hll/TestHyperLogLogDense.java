@@ -16,6 +16,7 @@
 
 package com.github.prasanthj.hll;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import java.util.Arrays;
@@ -78,4 +79,158 @@ public class TestHyperLogLogDense {
     assertEquals((double) hashset.size(), (double) hll.count(), delta);
   }
 
+  @Test
+  public void testIncrementalSumAndZeroes() {
+    Random rand = new Random(size);
+    HyperLogLog hll = HyperLogLog.builder().setEncoding(HyperLogLog.EncodingType.DENSE).build();
+    HyperLogLog other = HyperLogLog.builder().setEncoding(HyperLogLog.EncodingType.DENSE).build();
+    for (int i = 0; i < size; i++) {
+      hll.addLong(rand.nextLong());
+      other.addLong(rand.nextLong());
+    }
+    assertSumAndZeroes(hll.getHLLDenseRegister());
+    hll.merge(other);
+    assertSumAndZeroes(hll.getHLLDenseRegister());
+    for (int i = 0; i < size; i++) {
+      hll.addLong(rand.nextLong());
+    }
+    assertSumAndZeroes(hll.getHLLDenseRegister());
+  }
+
+  private static void assertSumAndZeroes(HLLDenseRegister register) {
+    double sum = 0;
+    int numZeroes = 0;
+    for (byte b : register.getRegister()) {
+      sum += HLLConstants.inversePow2Data[b];
+      if (b == 0) {
+        numZeroes++;
+      }
+    }
+    assertEquals(numZeroes, register.getNumZeroes());
+    assertEquals(sum, register.getSumInversePow2(), 1e-9);
+  }
+
+  @Test
+  public void testRegisterPacking() {
+    Random rand = new Random(size);
+    HyperLogLog hll = HyperLogLog.builder().setEncoding(HyperLogLog.EncodingType.DENSE).build();
+    HyperLogLog packed = HyperLogLog.builder().setEncoding(HyperLogLog.EncodingType.DENSE)
+        .enableRegisterPacking(true).build();
+    HyperLogLog otherPacked = HyperLogLog.builder().setEncoding(HyperLogLog.EncodingType.DENSE)
+        .enableRegisterPacking(true).build();
+    HyperLogLog sparse = HyperLogLog.builder().build();
+    for (int i = 0; i < size; i++) {
+      long val = rand.nextLong();
+      hll.addLong(val);
+      packed.addLong(val);
+      if (i % 3 == 0) {
+        otherPacked.addLong(val + 1);
+      } else {
+        sparse.addLong(val + 1);
+      }
+    }
+    assertEquals(HLLPackedDenseRegister.class, packed.getHLLDenseRegister().getClass());
+    assertArrayEquals(hll.getHLLDenseRegister().getRegister(),
+        packed.getHLLDenseRegister().getRegister());
+    assertEquals(hll.count(), packed.count());
+    assertSumAndZeroes(packed.getHLLDenseRegister());
+
+    hll.merge(otherPacked);
+    hll.merge(sparse);
+    packed.merge(otherPacked);
+    packed.merge(sparse);
+    assertArrayEquals(hll.getHLLDenseRegister().getRegister(),
+        packed.getHLLDenseRegister().getRegister());
+    assertEquals(hll.count(), packed.count());
+    assertSumAndZeroes(packed.getHLLDenseRegister());
+
+    // equal registers of either layout are equal and have the same hashcode
+    assertEquals(hll.getHLLDenseRegister(), packed.getHLLDenseRegister());
+    assertEquals(packed.getHLLDenseRegister(), hll.getHLLDenseRegister());
+    assertEquals(hll.getHLLDenseRegister().hashCode(), packed.getHLLDenseRegister().hashCode());
+    otherPacked.merge(packed);
+    assertEquals(packed.getHLLDenseRegister(), otherPacked.getHLLDenseRegister());
+    assertEquals(packed.getHLLDenseRegister().hashCode(),
+        otherPacked.getHLLDenseRegister().hashCode());
+
+    // packed registers merged into unpacked ones
+    HyperLogLog unpacked = HyperLogLog.builder().setEncoding(HyperLogLog.EncodingType.DENSE)
+        .build();
+    unpacked.merge(packed);
+    assertArrayEquals(hll.getHLLDenseRegister().getRegister(),
+        unpacked.getHLLDenseRegister().getRegister());
+    assertEquals(hll.count(), unpacked.count());
+  }
+
+  @Test
+  public void testPackedRegisterMax() {
+    Random rand = new Random(size);
+    long lanes = (1L << (HLLPackedDenseRegister.REGISTERS_PER_WORD
+        * HLLPackedDenseRegister.BITS_PER_REGISTER)) - 1;
+    for (int i = 0; i < 1000; i++) {
+      long x = rand.nextLong() & lanes;
+      long y = rand.nextLong() & lanes;
+      long expected = 0;
+      for (int r = 0; r < HLLPackedDenseRegister.REGISTERS_PER_WORD; r++) {
+        int shift = r * HLLPackedDenseRegister.BITS_PER_REGISTER;
+        long xr = (x >>> shift) & HLLPackedDenseRegister.MAX_REGISTER_VALUE;
+        long yr = (y >>> shift) & HLLPackedDenseRegister.MAX_REGISTER_VALUE;
+        expected |= Math.max(xr, yr) << shift;
+      }
+      assertEquals(expected, HLLPackedDenseRegister.max(x, y));
+    }
+  }
+
+  @Test
+  public void testMaxRegistersMatchesScalar() {
+    Random rand = new Random(size);
+    // lengths that are not a multiple of 8 exercise the scalar tail
+    int length = 16 + (size % 13);
+    for (int i = 0; i < 1000; i++) {
+      byte[] dst = new byte[length];
+      byte[] src = new byte[length];
+      rand.nextBytes(dst);
+      rand.nextBytes(src);
+      byte[] expected = new byte[length];
+      for (int j = 0; j < length; j++) {
+        expected[j] = (byte) Math.max(dst[j], src[j]);
+      }
+      HLLDenseRegister.maxRegisters(dst, src);
+      assertArrayEquals(expected, dst);
+    }
+  }
+
+  @Test
+  public void testSetHLLDenseRegister() {
+    Random rand = new Random(size);
+    for (boolean registerPacking : new boolean[] { false, true }) {
+      HyperLogLog hll = HyperLogLog.builder().setEncoding(HyperLogLog.EncodingType.DENSE)
+          .enableRegisterPacking(registerPacking).build();
+      HyperLogLog other = HyperLogLog.builder().setEncoding(HyperLogLog.EncodingType.DENSE)
+          .enableRegisterPacking(registerPacking).build();
+      for (int i = 0; i < size; i++) {
+        hll.addLong(rand.nextLong());
+        other.addLong(rand.nextLong());
+      }
+      byte[] register = hll.getHLLDenseRegister().getRegister().clone();
+
+      HyperLogLog actual = HyperLogLog.builder().setEncoding(HyperLogLog.EncodingType.DENSE)
+          .enableRegisterPacking(registerPacking).build();
+      actual.setHLLDenseRegister(register.clone());
+      assertEquals(hll, actual);
+      assertEquals(hll.getHLLDenseRegister().getMaxRegisterValue(),
+          actual.getHLLDenseRegister().getMaxRegisterValue());
+      assertEquals(hll.count(), actual.count());
+
+      // registers are merged if not empty
+      HyperLogLog expected = HyperLogLog.builder().setEncoding(HyperLogLog.EncodingType.DENSE)
+          .enableRegisterPacking(registerPacking).build();
+      expected.merge(other);
+      expected.merge(hll);
+      other.setHLLDenseRegister(register.clone());
+      assertEquals(expected, other);
+      assertEquals(expected.getHLLDenseRegister().getMaxRegisterValue(),
+          other.getHLLDenseRegister().getMaxRegisterValue());
+    }
+  }
 }
@@ -16,10 +16,15 @@
 
 package com.github.prasanthj.hll;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -145,4 +150,161 @@ public class TestHyperLogLogMerge {
     assertEquals(expected, actual, delta);
   }
 
+  @Test
+  public void testUnionMatchesSequentialMerge() {
+    int numHlls = 20;
+    Random rand = new Random(size);
+    List<HyperLogLog> hlls = new ArrayList<HyperLogLog>();
+    for (int i = 0; i < numHlls; i++) {
+      // first one has the smallest p, few of the later ones are DENSE
+      int p = i == 0 ? 14 : 14 + rand.nextInt(3);
+      EncodingType encoding = i % 7 == 3 ? EncodingType.DENSE : EncodingType.SPARSE;
+      HyperLogLog hll = HyperLogLog.builder().setNumRegisterIndexBits(p).setEncoding(encoding)
+          .build();
+      // skewed sizes so that some of the inputs stay SPARSE
+      int n = i % 2 == 0 ? size / numHlls : 100;
+      for (int j = 0; j < n; j++) {
+        hll.addLong(rand.nextLong());
+      }
+      hlls.add(hll);
+    }
+    assertUnion(hlls);
+
+    // only the small SPARSE inputs
+    List<HyperLogLog> sparseHlls = new ArrayList<HyperLogLog>();
+    for (int i = 1; i < numHlls; i += 2) {
+      if (hlls.get(i).getEncoding() == EncodingType.SPARSE) {
+        sparseHlls.add(hlls.get(i));
+      }
+    }
+    assertUnion(sparseHlls);
+  }
+
+  @Test
+  public void testParallelUnionMatchesSequentialMerge() {
+    // enough hyperloglogs to be split a few times
+    int numHlls = 4 * HLLConstants.PARALLEL_UNION_THRESHOLD + 17;
+    Random rand = new Random(size);
+    List<HyperLogLog> hlls = new ArrayList<HyperLogLog>();
+    for (int i = 0; i < numHlls; i++) {
+      int p = 14 + rand.nextInt(3);
+      EncodingType encoding = i % 101 == 50 ? EncodingType.DENSE : EncodingType.SPARSE;
+      HyperLogLog hll = HyperLogLog.builder().setNumRegisterIndexBits(p).setEncoding(encoding)
+          .build();
+      int n = Math.max(1, size / numHlls);
+      for (int j = 0; j < n; j++) {
+        hll.addLong(rand.nextLong());
+      }
+      hlls.add(hll);
+    }
+
+    HyperLogLog expected = HyperLogLog.builder().setNumRegisterIndexBits(14).build();
+    for (HyperLogLog hll : hlls) {
+      expected.merge(hll);
+    }
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      assertUnion(expected, HyperLogLog.union(hlls, pool));
+      // all SPARSE inputs
+      hlls.removeIf(hll -> hll.getEncoding() == EncodingType.DENSE);
+      if (hlls.isEmpty()) {
+        return;
+      }
+      int minP = HLLConstants.MAX_P_VALUE;
+      for (HyperLogLog hll : hlls) {
+        minP = Math.min(minP, hll.getNumRegisterIndexBits());
+      }
+      expected = HyperLogLog.builder().setNumRegisterIndexBits(minP).build();
+      for (HyperLogLog hll : hlls) {
+        expected.merge(hll);
+      }
+      assertUnion(expected, HyperLogLog.union(hlls, pool));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testUnionDoesNotModifyInputs() {
+    int numHlls = 10;
+    Random rand = new Random(size);
+    // the same inputs twice, as merge() merges the temp lists of its inputs
+    List<HyperLogLog> hlls = new ArrayList<HyperLogLog>();
+    List<HyperLogLog> copies = new ArrayList<HyperLogLog>();
+    for (int i = 0; i < numHlls; i++) {
+      int p = 14 + i % 3;
+      EncodingType encoding = i % 5 == 4 ? EncodingType.DENSE : EncodingType.SPARSE;
+      HyperLogLog hll = HyperLogLog.builder().setNumRegisterIndexBits(p).setEncoding(encoding)
+          .build();
+      HyperLogLog copy = HyperLogLog.builder().setNumRegisterIndexBits(p).setEncoding(encoding)
+          .build();
+      int n = i % 2 == 0 ? size / numHlls : 100;
+      for (int j = 0; j < n; j++) {
+        long val = rand.nextLong();
+        hll.addLong(val);
+        copy.addLong(val);
+      }
+      hlls.add(hll);
+      copies.add(copy);
+    }
+    int[] tempListSizes = new int[numHlls];
+    for (int i = 0; i < numHlls; i++) {
+      if (hlls.get(i).getEncoding() == EncodingType.SPARSE) {
+        tempListSizes[i] = hlls.get(i).getHLLSparseRegister().peekTempListSize();
+      }
+    }
+
+    HyperLogLog actual = HyperLogLog.union(hlls);
+    for (int i = 0; i < numHlls; i++) {
+      if (hlls.get(i).getEncoding() == EncodingType.SPARSE) {
+        assertEquals(tempListSizes[i], hlls.get(i).getHLLSparseRegister().peekTempListSize());
+      }
+    }
+    HyperLogLog expected = HyperLogLog.builder().setNumRegisterIndexBits(14).build();
+    for (HyperLogLog copy : copies) {
+      expected.merge(copy);
+    }
+    assertUnion(expected, actual);
+    for (int i = 0; i < numHlls; i++) {
+      assertEquals(copies.get(i), hlls.get(i));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnionEmpty() {
+    HyperLogLog.union(new ArrayList<HyperLogLog>());
+  }
+
+  private static void assertUnion(List<HyperLogLog> hlls) {
+    // iterator and stream unions require the first input to have the smallest p
+    List<HyperLogLog> sorted = new ArrayList<HyperLogLog>(hlls);
+    sorted.sort((a, b) -> a.getNumRegisterIndexBits() - b.getNumRegisterIndexBits());
+    HyperLogLog expected = HyperLogLog.builder()
+        .setNumRegisterIndexBits(sorted.get(0).getNumRegisterIndexBits()).build();
+    for (HyperLogLog hll : hlls) {
+      expected.merge(hll);
+    }
+    assertUnion(expected, HyperLogLog.union(hlls));
+    assertUnion(expected, HyperLogLog.union(sorted.iterator()));
+    assertUnion(expected, HyperLogLog.union(sorted.stream()));
+  }
+
+  private static void assertUnion(HyperLogLog expected, HyperLogLog actual) {
+    assertEquals(expected.getEncoding(), actual.getEncoding());
+    assertEquals(expected.getNumRegisterIndexBits(), actual.getNumRegisterIndexBits());
+    if (expected.getEncoding() == EncodingType.DENSE) {
+      assertArrayEquals(expected.getHLLDenseRegister().getRegister(),
+          actual.getHLLDenseRegister().getRegister());
+      assertEquals(expected.getHLLDenseRegister().getMaxRegisterValue(),
+          actual.getHLLDenseRegister().getMaxRegisterValue());
+    } else {
+      HLLSparseRegister expectedSparse = expected.getHLLSparseRegister();
+      HLLSparseRegister actualSparse = actual.getHLLSparseRegister();
+      assertEquals(expectedSparse.getSparseListSize(), actualSparse.getSparseListSize());
+      assertArrayEquals(
+          Arrays.copyOf(expectedSparse.getSparseList(), expectedSparse.getSparseListSize()),
+          Arrays.copyOf(actualSparse.getSparseList(), actualSparse.getSparseListSize()));
+    }
+    assertEquals(expected.count(), actual.count());
+  }
 }
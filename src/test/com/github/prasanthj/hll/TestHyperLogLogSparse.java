@@ -21,8 +21,10 @@ import static org.junit.Assert.assertEquals;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.TreeMap;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -77,4 +79,91 @@ public class TestHyperLogLogSparse {
     double delta = threshold * hashset.size() / 100;
     assertEquals((double) hashset.size(), (double) hll.count(), delta);
   }
+
+  @Test
+  public void testSparseListMatchesReference() {
+    Random rand = new Random(size);
+    int p = 14;
+    int pPrime = HLLConstants.P_PRIME_VALUE;
+    int qPrime = HLLConstants.Q_PRIME_VALUE;
+    HLLSparseRegister reg1 = new HLLSparseRegister(p, pPrime, qPrime);
+    HLLSparseRegister reg2 = new HLLSparseRegister(p, pPrime, qPrime);
+    Map<Integer, Integer> expected1 = new TreeMap<Integer, Integer>();
+    Map<Integer, Integer> expected2 = new TreeMap<Integer, Integer>();
+    int n = Math.min(size, 100000);
+    for (int i = 0; i < n; i++) {
+      long hashcode = rand.nextLong();
+      if (i % 2 == 0) {
+        // restrict the range of hashcodes so that register indices collide
+        hashcode &= ~(((1L << pPrime) - 1) ^ 0xfffL);
+      }
+      HLLSparseRegister reg = i % 3 == 0 ? reg2 : reg1;
+      Map<Integer, Integer> expected = i % 3 == 0 ? expected2 : expected1;
+      reg.add(hashcode);
+
+      int key = (int) (hashcode & ((1 << pPrime) - 1));
+      int value = Long.numberOfTrailingZeros(hashcode >>> p) + 1;
+      if (value > (pPrime - p)) {
+        value = Long.numberOfTrailingZeros(hashcode >> p) + 1;
+      }
+      Integer current = expected.get(key);
+      if (current == null || current < value) {
+        expected.put(key, value);
+      }
+    }
+    assertSparseList(expected1, reg1);
+    assertSparseList(expected2, reg2);
+
+    reg1.merge(reg2);
+    for (Map.Entry<Integer, Integer> entry : expected2.entrySet()) {
+      Integer current = expected1.get(entry.getKey());
+      if (current == null || current < entry.getValue()) {
+        expected1.put(entry.getKey(), entry.getValue());
+      }
+    }
+    assertSparseList(expected1, reg1);
+  }
+
+  private static void assertSparseList(Map<Integer, Integer> expected, HLLSparseRegister reg) {
+    int[] sparseList = reg.getSparseList();
+    assertEquals(expected.size(), reg.getSparseListSize());
+    int i = 0;
+    for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+      assertEquals((entry.getKey() << HLLConstants.Q_PRIME_VALUE) | entry.getValue(), sparseList[i++]);
+    }
+  }
+
+  @Test
+  public void testSetHLLSparseRegister() {
+    Random rand = new Random(size);
+    HyperLogLog hll = HyperLogLog.builder().build();
+    HyperLogLog other = HyperLogLog.builder().build();
+    int n = Math.min(size, 1000);
+    for (int i = 0; i < n; i++) {
+      hll.addLong(rand.nextLong());
+      other.addLong(rand.nextLong());
+    }
+    HLLSparseRegister sparseRegister = hll.getHLLSparseRegister();
+    int[] sorted = Arrays.copyOf(sparseRegister.getSparseList(),
+        sparseRegister.getSparseListSize());
+
+    // sorted entries into an empty and a non-empty register
+    HyperLogLog actual = HyperLogLog.builder().build();
+    actual.setHLLSparseRegister(sorted.clone());
+    assertEquals(hll, actual);
+    HyperLogLog expected = HyperLogLog.builder().build();
+    expected.merge(other);
+    expected.merge(hll);
+    other.setHLLSparseRegister(sorted.clone());
+    assertEquals(expected, other);
+
+    // unsorted entries
+    int[] reversed = new int[sorted.length];
+    for (int i = 0; i < sorted.length; i++) {
+      reversed[i] = sorted[sorted.length - 1 - i];
+    }
+    actual = HyperLogLog.builder().build();
+    actual.setHLLSparseRegister(reversed);
+    assertEquals(hll, actual);
+  }
 }
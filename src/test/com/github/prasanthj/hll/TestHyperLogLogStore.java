@@ -0,0 +1,208 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.github.prasanthj.hll.HyperLogLog.EncodingType;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestHyperLogLogStore {
+
+  private static final int P = 14;
+
+  // small segments so that the tests span several segments
+  private static final int SEGMENT_SHIFT = HyperLogLogStore.MIN_SEGMENT_SHIFT;
+
+  private File dir;
+
+  @Before
+  public void setup() throws IOException {
+    dir = Files.createTempDirectory("hllstore").toFile();
+  }
+
+  @After
+  public void cleanup() {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    dir.delete();
+  }
+
+  // some keys stay SPARSE, others go DENSE
+  private static int getSize(long key) {
+    return key % 10 == 0 ? 20000 : (int) (key * 7 % 1000);
+  }
+
+  private static void assertHyperLogLog(HyperLogLog expected, HyperLogLogStore store, long key)
+      throws IOException {
+    HyperLogLog actual = store.get(key);
+    assertEquals(expected.getEncoding(), actual.getEncoding());
+    assertEquals(expected, actual);
+    assertEquals(expected.count(), actual.count());
+    assertEquals(expected.count(), store.count(key));
+  }
+
+  @Test
+  public void testAdd() throws IOException {
+    Map<Long, HyperLogLog> expected = new HashMap<Long, HyperLogLog>();
+    try (HyperLogLogStore store = HyperLogLogStore.open(dir, P, SEGMENT_SHIFT)) {
+      Random rand = new Random(123);
+      // interleave keys so that sparse blocks move around
+      for (int round = 0; round < 20000; round++) {
+        for (long key = 0; key < 40; key++) {
+          if (round < getSize(key)) {
+            long hashcode = Murmur3.hash64(rand.nextLong());
+            store.add(key, hashcode);
+            if (!expected.containsKey(key)) {
+              expected.put(key, HyperLogLog.builder().setNumRegisterIndexBits(P).build());
+            }
+            expected.get(key).add(hashcode);
+          }
+        }
+      }
+
+      assertEquals(expected.size(), store.size());
+      for (long key = 0; key < 50; key++) {
+        if (expected.containsKey(key)) {
+          assertTrue(store.contains(key));
+          assertHyperLogLog(expected.get(key), store, key);
+        } else {
+          assertFalse(store.contains(key));
+          assertNull(store.get(key));
+          assertEquals(0, store.count(key));
+        }
+      }
+    }
+
+    // reopen and add more
+    try (HyperLogLogStore store = HyperLogLogStore.open(dir)) {
+      assertEquals(P, store.getNumRegisterIndexBits());
+      assertEquals(expected.size(), store.size());
+      for (Map.Entry<Long, HyperLogLog> entry : expected.entrySet()) {
+        assertHyperLogLog(entry.getValue(), store, entry.getKey());
+      }
+      for (Map.Entry<Long, HyperLogLog> entry : expected.entrySet()) {
+        for (int i = 0; i < 100; i++) {
+          long hashcode = Murmur3.hash64(entry.getKey() * 1000 + i);
+          store.add(entry.getKey(), hashcode);
+          entry.getValue().add(hashcode);
+        }
+        assertHyperLogLog(entry.getValue(), store, entry.getKey());
+      }
+    }
+  }
+
+  @Test
+  public void testManyKeys() throws IOException {
+    int numKeys = 5000;
+    try (HyperLogLogStore store = HyperLogLogStore.open(dir, P, SEGMENT_SHIFT)) {
+      for (int key = 0; key < numKeys; key++) {
+        store.add("user-" + key, Murmur3.hash64(key));
+        store.add("user-" + key, Murmur3.hash64(-key));
+      }
+      assertEquals(numKeys, store.size());
+    }
+    try (HyperLogLogStore store = HyperLogLogStore.open(dir, P)) {
+      assertEquals(numKeys, store.size());
+      for (int key = 0; key < numKeys; key++) {
+        HyperLogLog expected = HyperLogLog.builder().setNumRegisterIndexBits(P).build();
+        expected.add(Murmur3.hash64(key));
+        expected.add(Murmur3.hash64(-key));
+        assertEquals(expected, store.get("user-" + key));
+        assertEquals(expected.count(), store.count("user-" + key));
+      }
+      assertFalse(store.contains("user-" + numKeys));
+    }
+  }
+
+  @Test
+  public void testFileSize() throws IOException {
+    HyperLogLog expected = HyperLogLog.builder().setNumRegisterIndexBits(P).build();
+    try (HyperLogLogStore store = HyperLogLogStore.open(dir, P)) {
+      for (int i = 0; i < 20000; i++) {
+        long hashcode = Murmur3.hash64(i);
+        expected.add(hashcode);
+        store.add(0, hashcode);
+        store.add(1 + i % 100, hashcode);
+      }
+    }
+    // files grow with the data and not a 256MB segment at a time
+    for (String name : new String[] { HyperLogLogStore.INDEX_FILE,
+        HyperLogLogStore.DENSE_FILE, HyperLogLogStore.SPARSE_FILE }) {
+      long length = new File(dir, name).length();
+      assertTrue(name + " length: " + length, length <= 1 << 20);
+    }
+    try (HyperLogLogStore store = HyperLogLogStore.open(dir, P)) {
+      assertEquals(101, store.size());
+      assertHyperLogLog(expected, store, 0);
+    }
+  }
+
+  @Test
+  public void testMerge() throws IOException {
+    Random rand = new Random(123);
+    try (HyperLogLogStore store = HyperLogLogStore.open(dir, P, SEGMENT_SHIFT)) {
+      for (long key = 0; key < 10; key++) {
+        HyperLogLog expected = HyperLogLog.builder().setNumRegisterIndexBits(P).build();
+        for (int i = 0; i < 6; i++) {
+          // mix of SPARSE and DENSE with the same and larger p
+          int p = P + rand.nextInt(3);
+          EncodingType encoding = (key + i) % 4 == 0 ? EncodingType.DENSE : EncodingType.SPARSE;
+          HyperLogLog hll = HyperLogLog.builder().setNumRegisterIndexBits(p).setEncoding(encoding)
+              .build();
+          int n = rand.nextInt(key < 5 ? 500 : 5000);
+          for (int j = 0; j < n; j++) {
+            hll.addLong(rand.nextLong());
+          }
+          expected.merge(hll);
+          store.merge(key, hll);
+        }
+        assertHyperLogLog(expected, store, key);
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMergeSmallerP() throws IOException {
+    try (HyperLogLogStore store = HyperLogLogStore.open(dir, P, SEGMENT_SHIFT)) {
+      store.merge(0, HyperLogLog.builder().setNumRegisterIndexBits(P - 1).build());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testReopenDifferentP() throws IOException {
+    HyperLogLogStore.open(dir, P, SEGMENT_SHIFT).close();
+    HyperLogLogStore.open(dir, P + 1);
+  }
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.github.prasanthj.hll.HyperLogLog.EncodingType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestHyperLogLogView {
+
+  private static final int[] SIZES = { 0, 1, 10, 100, 1000, 5000, 100000 };
+
+  private static List<HyperLogLog> createHyperLogLogs(int p) {
+    Random rand = new Random(p);
+    List<HyperLogLog> hlls = new ArrayList<HyperLogLog>();
+    for (EncodingType encoding : EncodingType.values()) {
+      for (boolean bitPacking : new boolean[] { true, false }) {
+        for (int size : SIZES) {
+          // empty DENSE hyperloglogs cannot be serialized
+          int n = encoding == EncodingType.DENSE ? Math.max(1, size) : size;
+          HyperLogLog hll = HyperLogLog.builder().setNumRegisterIndexBits(p)
+              .setEncoding(encoding).enableBitPacking(bitPacking).build();
+          for (int i = 0; i < n; i++) {
+            hll.addLong(rand.nextLong());
+          }
+          hlls.add(hll);
+        }
+      }
+    }
+    return hlls;
+  }
+
+  // serializes all hyperloglogs back to back in a direct buffer
+  private static ByteBuffer serialize(List<HyperLogLog> hlls, int[] offsets) {
+    int size = 0;
+    for (HyperLogLog hll : hlls) {
+      size += HyperLogLogUtils.serializedSize(hll);
+    }
+    ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+    for (int i = 0; i < hlls.size(); i++) {
+      offsets[i] = buffer.position();
+      HyperLogLogUtils.serializeHLL(buffer, hlls.get(i));
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private static byte[] toBytes(HyperLogLog hll) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    HyperLogLogUtils.serializeHLL(out, hll);
+    return out.toByteArray();
+  }
+
+  @Test
+  public void testViewCount() {
+    for (int p = 10; p <= 15; p++) {
+      List<HyperLogLog> hlls = createHyperLogLogs(p);
+      int[] offsets = new int[hlls.size()];
+      ByteBuffer buffer = serialize(hlls, offsets);
+      HyperLogLogView view = new HyperLogLogView();
+      for (int i = 0; i < hlls.size(); i++) {
+        HyperLogLog hll = hlls.get(i);
+        view.wrap(buffer, offsets[i]);
+        buffer.position(offsets[i]);
+        HyperLogLog deserialized = HyperLogLogUtils.deserializeHLL(buffer);
+        assertEquals(p, view.getNumRegisterIndexBits());
+        assertEquals(hll.getEncoding(), view.getEncoding());
+        assertEquals(hll.count(), view.getEstimatedCount());
+        assertEquals(deserialized.count(), view.count());
+        assertEquals(deserialized, view.toHyperLogLog());
+      }
+    }
+  }
+
+  @Test
+  public void testViewMerge() throws IOException {
+    for (int p = 10; p <= 15; p++) {
+      List<HyperLogLog> hlls = createHyperLogLogs(p);
+      int[] offsets = new int[hlls.size()];
+      ByteBuffer buffer = serialize(hlls, offsets);
+      HyperLogLogView view = new HyperLogLogView();
+
+      // merge every pair of hyperloglogs, directly from the view and after
+      // deserializing
+      for (int i = 0; i < hlls.size(); i++) {
+        for (int j = 0; j < hlls.size(); j += 3) {
+          HyperLogLog expected = HyperLogLogUtils.deserializeHLL(
+              ByteBuffer.wrap(toBytes(hlls.get(i))));
+          HyperLogLog actual = HyperLogLogUtils.deserializeHLL(
+              ByteBuffer.wrap(toBytes(hlls.get(i))));
+          buffer.position(offsets[j]);
+          expected.merge(HyperLogLogUtils.deserializeHLL(buffer));
+          actual.merge(view.wrap(buffer, offsets[j]));
+          assertEquals(expected.getEncoding(), actual.getEncoding());
+          assertEquals(expected, actual);
+          assertEquals(expected.count(), actual.count());
+          assertArrayEquals(toBytes(expected), toBytes(actual));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testViewMergeLargerP() {
+    HyperLogLog hll = HyperLogLog.builder().setNumRegisterIndexBits(12).build();
+    HyperLogLog expected = HyperLogLog.builder().setNumRegisterIndexBits(12).build();
+    HyperLogLog other = HyperLogLog.builder().setNumRegisterIndexBits(14)
+        .setEncoding(EncodingType.DENSE).build();
+    for (int i = 0; i < 10000; i++) {
+      other.addLong(i);
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(HyperLogLogUtils.serializedSize(other));
+    HyperLogLogUtils.serializeHLL(buffer, other);
+    buffer.flip();
+    hll.merge(new HyperLogLogView().wrap(buffer));
+    expected.merge(HyperLogLogUtils.deserializeHLL(buffer));
+    assertEquals(expected, hll);
+    assertEquals(expected.count(), hll.count());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testViewInvalidBuffer() {
+    new HyperLogLogView().wrap(ByteBuffer.wrap(new byte[] { 'H', 'L', 'X', 0, 0 }));
+  }
+}
@@ -25,6 +25,8 @@ import org.junit.Test;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Random;
 
 /**
@@ -184,4 +186,97 @@ public class TestMurmur3 {
       assertEquals(gl2, m2);
     }
   }
+
+  @Test
+  public void testHashCodesM3_64_primitives() {
+    Random rand = new Random(123);
+    for (int i = 0; i < 1000; i++) {
+      byte b = (byte) rand.nextInt();
+      assertEquals(Murmur3.hash64(new byte[] { b }), Murmur3.hash64(b));
+
+      short s = (short) rand.nextInt();
+      assertEquals(Murmur3.hash64(ByteBuffer.allocate(2).putShort(s).array()), Murmur3.hash64(s));
+
+      char c = (char) rand.nextInt();
+      assertEquals(Murmur3.hash64(ByteBuffer.allocate(2).putChar(c).array()), Murmur3.hash64(c));
+
+      int iv = rand.nextInt();
+      assertEquals(Murmur3.hash64(ByteBuffer.allocate(4).putInt(iv).array()), Murmur3.hash64(iv));
+
+      float f = rand.nextFloat();
+      assertEquals(Murmur3.hash64(ByteBuffer.allocate(4).putFloat(f).array()), Murmur3.hash64(f));
+
+      long l = rand.nextLong();
+      assertEquals(Murmur3.hash64(ByteBuffer.allocate(8).putLong(l).array()), Murmur3.hash64(l));
+
+      double d = rand.nextDouble();
+      assertEquals(Murmur3.hash64(ByteBuffer.allocate(8).putDouble(d).array()), Murmur3.hash64(d));
+    }
+  }
+
+  @Test
+  public void testHashCodesM3_64_offset() {
+    Random rand = new Random(123);
+    byte[] data = new byte[64];
+    rand.nextBytes(data);
+    for (int offset = 0; offset < 16; offset++) {
+      for (int length = 0; offset + length <= data.length; length++) {
+        byte[] copy = Arrays.copyOfRange(data, offset, offset + length);
+        assertEquals(Murmur3.hash64(copy),
+            Murmur3.hash64(data, offset, length, Murmur3.DEFAULT_SEED));
+      }
+    }
+  }
+
+  @Test
+  public void testHashCodesM3_64_utf8() {
+    Random rand = new Random(123);
+    // ascii, 2, 3 and 4 byte encodings and unpaired surrogates
+    char[] alphabet = { 'a', 'Z', '/', '\u00e9', '\u07ff', '\u20ac', '\uffff', '\ud83d', '\ude00' };
+    for (int length = 0; length < 100; length++) {
+      for (int i = 0; i < 20; i++) {
+        char[] chars = new char[length];
+        for (int j = 0; j < length; j++) {
+          // mostly ascii to cover whole ascii blocks
+          chars[j] = rand.nextInt(4) == 0 ? alphabet[rand.nextInt(alphabet.length)]
+              : (char) ('a' + rand.nextInt(26));
+        }
+        String str = new String(chars);
+        long expected = Murmur3.hash64(str.getBytes(StandardCharsets.UTF_8));
+        assertEquals(str, expected, Murmur3.hash64Utf8(str));
+        assertEquals(str, expected, Murmur3.hash64Utf8(new StringBuilder(str)));
+        char[] padded = new char[length + 4];
+        System.arraycopy(chars, 0, padded, 3, length);
+        assertEquals(str, expected, Murmur3.hash64Utf8(padded, 3, length));
+      }
+    }
+
+    // surrogate pair split by the end of the range
+    char[] pair = { 'a', '\ud83d', '\ude00' };
+    assertEquals(Murmur3.hash64("a?".getBytes(StandardCharsets.UTF_8)),
+        Murmur3.hash64Utf8(pair, 0, 2));
+  }
+
+  @Test
+  public void testHashCodesM3_64_byteBuffer() {
+    Random rand = new Random(123);
+    byte[] data = new byte[64];
+    rand.nextBytes(data);
+    ByteBuffer[] buffers = { ByteBuffer.wrap(data), ByteBuffer.allocateDirect(data.length),
+        ByteBuffer.allocateDirect(data.length).order(ByteOrder.LITTLE_ENDIAN) };
+    buffers[1].put(data).clear();
+    buffers[2].put(data).clear();
+    for (ByteBuffer buffer : buffers) {
+      for (int offset = 0; offset < 16; offset++) {
+        for (int length = 0; offset + length <= data.length; length++) {
+          long expected = Murmur3.hash64(data, offset, length, Murmur3.DEFAULT_SEED);
+          assertEquals(expected, Murmur3.hash64(buffer, offset, length, Murmur3.DEFAULT_SEED));
+          buffer.limit(offset + length).position(offset);
+          assertEquals(expected, Murmur3.hash64(buffer));
+          assertEquals(offset, buffer.position());
+          buffer.clear();
+        }
+      }
+    }
+  }
 }
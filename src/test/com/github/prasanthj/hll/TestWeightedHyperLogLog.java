@@ -0,0 +1,311 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestWeightedHyperLogLog {
+
+  private static final int P = 14;
+
+  private static WeightedHyperLogLog createDense() {
+    return WeightedHyperLogLog.builder().setNumRegisterIndexBits(P)
+        .setEncoding(WeightedHyperLogLog.EncodingType.DENSE).build();
+  }
+
+  private static WeightedHyperLogLog createSparse() {
+    return WeightedHyperLogLog.builder().setNumRegisterIndexBits(P)
+        .setEncoding(WeightedHyperLogLog.EncodingType.SPARSE).build();
+  }
+
+  private static void assertRelativeError(long expected, long actual, double maxError) {
+    double error = Math.abs(expected - actual) / (double) expected;
+    assertTrue("expected " + expected + " actual " + actual, error <= maxError);
+  }
+
+  @Test
+  public void testDeterministic() {
+    WeightedHyperLogLog whll1 = createDense();
+    WeightedHyperLogLog whll2 = createDense();
+    Random rand = new Random(123);
+    for (int i = 0; i < 100000; i++) {
+      long hashcode = Murmur3.hash64(rand.nextLong());
+      double weight = 1 + rand.nextInt(100) / 10.0;
+      whll1.add(hashcode, weight);
+      whll2.add(hashcode, weight);
+      // adding the same element again does not change the registers
+      whll2.add(hashcode, weight);
+    }
+    assertArrayEquals(whll1.getHLLDenseRegister().getRegister(),
+        whll2.getHLLDenseRegister().getRegister());
+  }
+
+  @Test
+  public void testWeightedCount() {
+    // every register gets many elements, as one element updates one register
+    double[] weights = { 0.25, 0.5, 1.5, 2 };
+    for (double weight : weights) {
+      WeightedHyperLogLog whll = createDense();
+      int n = (int) (1000000 / weight);
+      for (int i = 0; i < n; i++) {
+        whll.add(Murmur3.hash64(i), weight);
+      }
+      assertRelativeError((long) (n * weight), whll.count(), 0.05);
+    }
+  }
+
+  @Test
+  public void testSparseToDense() {
+    WeightedHyperLogLog sparse = createSparse();
+    WeightedHyperLogLog dense = createDense();
+    Random rand = new Random(123);
+    for (int i = 0; i < 100000; i++) {
+      long hashcode = Murmur3.hash64(rand.nextLong());
+      double weight = 0.1 + rand.nextInt(100) / 10.0;
+      sparse.add(hashcode, weight);
+      dense.add(hashcode, weight);
+      if (sparse.getEncoding() == WeightedHyperLogLog.EncodingType.SPARSE && i % 100 == 0) {
+        assertEquals(dense.count(), sparse.count());
+      }
+    }
+
+    // the weighted values survive the conversion
+    assertEquals(WeightedHyperLogLog.EncodingType.DENSE, sparse.getEncoding());
+    assertArrayEquals(dense.getHLLDenseRegister().getRegister(),
+        sparse.getHLLDenseRegister().getRegister());
+    assertEquals(dense.count(), sparse.count());
+  }
+
+  private static WeightedHyperLogLog create(int p, WeightedHyperLogLog.EncodingType encoding) {
+    return WeightedHyperLogLog.builder().setNumRegisterIndexBits(p).setEncoding(encoding).build();
+  }
+
+  // the same element always comes with the same weight
+  private static double getWeight(long val) {
+    return 0.5 + (val & 15);
+  }
+
+  @Test
+  public void testSquash() {
+    for (int n : new int[] { 1000, 100000 }) {
+      WeightedHyperLogLog sparse = createSparse();
+      WeightedHyperLogLog dense = createDense();
+      WeightedHyperLogLog small = create(P - 4, WeightedHyperLogLog.EncodingType.DENSE);
+      Random rand = new Random(n);
+      for (int i = 0; i < n; i++) {
+        long val = rand.nextLong();
+        sparse.add(Murmur3.hash64(val), getWeight(val));
+        dense.add(Murmur3.hash64(val), getWeight(val));
+        small.add(Murmur3.hash64(val), getWeight(val));
+      }
+
+      // squashing gives the registers of adding the elements with smaller p
+      assertEquals(small, sparse.squash(P - 4));
+      assertEquals(small, dense.squash(P - 4));
+      assertEquals(small.count(), dense.squash(P - 4).count());
+    }
+  }
+
+  @Test
+  public void testMerge() {
+    WeightedHyperLogLog.EncodingType[] encodings = WeightedHyperLogLog.EncodingType.values();
+    int[] sizes = { 100, 1000, 50000 };
+    for (int size : sizes) {
+      WeightedHyperLogLog expected = create(P, WeightedHyperLogLog.EncodingType.DENSE);
+      WeightedHyperLogLog[] shards = new WeightedHyperLogLog[6];
+      for (int i = 0; i < shards.length; i++) {
+        shards[i] = create(P + i % 3, encodings[i % encodings.length]);
+      }
+
+      // shards overlap, so some elements are added to several shards
+      Random rand = new Random(size);
+      for (int i = 0; i < size; i++) {
+        long val = rand.nextInt(size);
+        expected.add(Murmur3.hash64(val), getWeight(val));
+        shards[rand.nextInt(shards.length)].add(Murmur3.hash64(val), getWeight(val));
+      }
+
+      WeightedHyperLogLog merged = create(P, WeightedHyperLogLog.EncodingType.DENSE);
+      for (WeightedHyperLogLog shard : shards) {
+        merged.merge(shard);
+      }
+      assertEquals(expected, merged);
+
+      // merging into a sparse hyperloglog switches encoding like adding does
+      WeightedHyperLogLog sparse = createSparse();
+      for (WeightedHyperLogLog shard : shards) {
+        sparse.merge(shard);
+      }
+      assertEquals(expected.count(), sparse.count());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMergeLargerP() {
+    createDense().merge(create(P - 1, WeightedHyperLogLog.EncodingType.DENSE));
+  }
+
+  @Test
+  public void testSerialization() throws IOException {
+    for (int n : new int[] { 1, 1000, 100000 }) {
+      for (boolean bitPacking : new boolean[] { true, false }) {
+        WeightedHyperLogLog whll = WeightedHyperLogLog.builder().setNumRegisterIndexBits(P)
+            .enableBitPacking(bitPacking).build();
+        Random rand = new Random(n);
+        for (int i = 0; i < n; i++) {
+          long val = rand.nextLong();
+          whll.add(Murmur3.hash64(val), getWeight(val));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HyperLogLogUtils.serializeWHLL(out, whll);
+        byte[] bytes = out.toByteArray();
+        assertEquals(HyperLogLogUtils.serializedSize(whll), bytes.length);
+        assertEquals(whll.count(),
+            HyperLogLogUtils.getEstimatedCountFromSerializedHLL(new ByteArrayInputStream(bytes)));
+
+        WeightedHyperLogLog deserialized =
+            HyperLogLogUtils.deserializeWHLL(new ByteArrayInputStream(bytes));
+        assertEquals(whll.getEncoding(), deserialized.getEncoding());
+        assertEquals(whll, deserialized);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length + 1);
+        buffer.put((byte) 0);
+        HyperLogLogUtils.serializeWHLL(buffer, whll);
+        assertEquals(bytes.length + 1, buffer.position());
+        buffer.position(1);
+        assertEquals(whll, HyperLogLogUtils.deserializeWHLL(buffer));
+        assertEquals(0, buffer.remaining());
+      }
+    }
+  }
+
+  @Test
+  public void testSerializationHeader() throws IOException {
+    WeightedHyperLogLog whll = createSparse();
+    whll.add(Murmur3.hash64(1), 2);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    HyperLogLogUtils.serializeWHLL(out, whll);
+    try {
+      HyperLogLogUtils.deserializeHLL(new ByteArrayInputStream(out.toByteArray()));
+      fail("weighted hyperloglog deserialized as hyperloglog");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      new HyperLogLogView().wrap(ByteBuffer.wrap(out.toByteArray()));
+      fail("weighted hyperloglog wrapped by view");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+
+    HyperLogLog hll = HyperLogLog.builder().build();
+    hll.addLong(1);
+    out.reset();
+    HyperLogLogUtils.serializeHLL(out, hll);
+    try {
+      HyperLogLogUtils.deserializeWHLL(new ByteArrayInputStream(out.toByteArray()));
+      fail("hyperloglog deserialized as weighted hyperloglog");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  private static class CountingTracer implements WeightedHyperLogLog.Tracer {
+    int numCounts;
+    int numSwitches;
+    long lastCount;
+
+    @Override
+    public void onCount(WeightedHyperLogLog.EncodingType encoding, double sum, long numZeros,
+        long rawCount, long count) {
+      numCounts++;
+      lastCount = count;
+    }
+
+    @Override
+    public void onEncodingSwitch(int sparseSize) {
+      numSwitches++;
+    }
+  }
+
+  @Test
+  public void testTracer() {
+    CountingTracer tracer = new CountingTracer();
+    WeightedHyperLogLog whll = WeightedHyperLogLog.builder().setNumRegisterIndexBits(P)
+        .setTracer(tracer).build();
+    PrintStream stdout = System.out;
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(out));
+    try {
+      for (int i = 0; i < 100000; i++) {
+        whll.addInt(i, getWeight(i));
+        if (i % 1000 == 0) {
+          long count = whll.count();
+          assertEquals(count, tracer.lastCount);
+          // cached count is not traced again
+          whll.count();
+        }
+      }
+    } finally {
+      System.setOut(stdout);
+    }
+    assertEquals(100, tracer.numCounts);
+    assertEquals(1, tracer.numSwitches);
+    assertEquals(0, out.size());
+
+    // merging a DENSE weighted hyperloglog converts a SPARSE one to DENSE
+    tracer = new CountingTracer();
+    WeightedHyperLogLog sparse = WeightedHyperLogLog.builder().setNumRegisterIndexBits(P)
+        .setTracer(tracer).build();
+    sparse.addInt(1, 2.5);
+    sparse.merge(whll);
+    assertEquals(WeightedHyperLogLog.EncodingType.DENSE, sparse.getEncoding());
+    assertEquals(1, tracer.numSwitches);
+  }
+
+  @Test
+  public void testRegisterValueRange() {
+    int numBits = 64 - P;
+    assertEquals(numBits + 1, WHLLDenseRegister.getRegisterValue(0, numBits, 0.5));
+    assertEquals(numBits + 1, WHLLDenseRegister.getRegisterValue(1L << (numBits - 1), numBits,
+        Double.POSITIVE_INFINITY));
+    Random rand = new Random(123);
+    for (int i = 0; i < 100000; i++) {
+      long w = rand.nextLong() >>> P;
+      int value = WHLLDenseRegister.getRegisterValue(w, numBits, Math.pow(10, rand.nextInt(20) - 10));
+      assertTrue(value >= 1 && value <= numBits + 1);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidWeight() {
+    createDense().add(Murmur3.hash64(1), 0);
+  }
+}
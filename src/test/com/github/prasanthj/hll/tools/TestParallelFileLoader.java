@@ -0,0 +1,119 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll.tools;
+
+import static org.junit.Assert.assertEquals;
+
+import com.github.prasanthj.hll.HyperLogLog;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestParallelFileLoader {
+
+  private static final String[] TERMINATORS = { "\n", "\r", "\r\n" };
+
+  private File file;
+
+  @Before
+  public void setup() throws IOException {
+    file = File.createTempFile("hllloader", ".txt");
+  }
+
+  @After
+  public void cleanup() {
+    file.delete();
+  }
+
+  private void writeLines(int numLines, int maxLength, boolean lastTerminator, Random rand)
+      throws IOException {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < numLines; i++) {
+      // duplicates, empty lines and multi-byte characters
+      int length = rand.nextInt(maxLength + 1);
+      for (int j = 0; j < length; j++) {
+        sb.append(j % 7 == 6 ? '\u00e9' : (char) ('a' + rand.nextInt(4)));
+      }
+      if (i < numLines - 1 || lastTerminator) {
+        sb.append(TERMINATORS[rand.nextInt(TERMINATORS.length)]);
+      }
+    }
+    Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private HyperLogLog readLines(HyperLogLog.HyperLogLogBuilder builder, long[] numLines)
+      throws IOException {
+    HyperLogLog hll = builder.build();
+    try (BufferedReader br = new BufferedReader(new InputStreamReader(
+        new FileInputStream(file), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = br.readLine()) != null) {
+        hll.addString(line, StandardCharsets.UTF_8);
+        numLines[0]++;
+      }
+    }
+    return hll;
+  }
+
+  private void assertLoad(int chunkSize) throws IOException {
+    HyperLogLog.HyperLogLogBuilder builder = HyperLogLog.builder().setNumRegisterIndexBits(12);
+    long[] numLines = new long[1];
+    HyperLogLog expected = readLines(builder, numLines);
+    for (int numThreads : new int[] { 1, 4 }) {
+      ParallelFileLoader loader = new ParallelFileLoader(builder, numThreads, chunkSize);
+      HyperLogLog actual = loader.load(file);
+      assertEquals(numLines[0], loader.getNumLines());
+      assertEquals(file.length(), loader.getNumBytes());
+      assertEquals(expected, actual);
+      assertEquals(expected.count(), actual.count());
+    }
+  }
+
+  @Test
+  public void testLoad() throws IOException {
+    Random rand = new Random(123);
+    for (boolean lastTerminator : new boolean[] { true, false }) {
+      writeLines(2000, 20, lastTerminator, rand);
+      for (int chunkSize : new int[] { 1, 7, 4096, ParallelFileLoader.DEFAULT_CHUNK_SIZE }) {
+        assertLoad(chunkSize);
+      }
+    }
+  }
+
+  @Test
+  public void testLongLines() throws IOException {
+    // lines longer than the blocks lines are copied in
+    writeLines(10, 3 << 20, true, new Random(123));
+    assertLoad(1 << 20);
+    assertLoad(ParallelFileLoader.DEFAULT_CHUNK_SIZE);
+  }
+
+  @Test
+  public void testEmptyFile() throws IOException {
+    assertLoad(ParallelFileLoader.DEFAULT_CHUNK_SIZE);
+  }
+}